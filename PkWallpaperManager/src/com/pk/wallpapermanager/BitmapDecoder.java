@@ -0,0 +1,187 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.pk.wallpapermanager;
+
+import java.io.File;
+import java.io.IOException;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+/**
+ * Decodes images no larger than they need to be.
+ * <p>
+ * Image bounds are read first so the decoder can subsample while decoding 
+ * and, when the aspect ratio doesn't match, only decode the region that 
+ * will actually be kept.
+ */
+class BitmapDecoder
+{
+	/**
+	 * Decodes the image file passed so that it covers the requested 
+	 * size, cropping the center if the aspect ratio differs. Images 
+	 * smaller than the requested size are decoded as they are.
+	 * <p>
+	 * Pass 0 for either dimension to decode the full image.
+	 * 
+	 * @param file
+	 * @param reqWidth
+	 * @param reqHeight
+	 * @return
+	 * @throws IOException
+	 */
+	public static Bitmap decodeFile(File file, int reqWidth, int reqHeight) throws IOException
+	{
+		String path = file.getAbsolutePath();
+		
+		// Read bounds only, nothing is allocated here
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(path, options);
+		
+		final int width = options.outWidth;
+		final int height = options.outHeight;
+		if(width <= 0 || height <= 0)
+			throw new IOException("Unable to read image bounds of " + path);
+		
+		options = new BitmapFactory.Options();
+		Cancellation.throwIfCancelled("decoding " + path);
+		
+		// Nothing to do if no size was requested or the image is already small enough
+		float scale = (reqWidth > 0 && reqHeight > 0) ? Math.max((float) reqWidth / width, (float) reqHeight / height) : 1.0f;
+		if(scale >= 1.0f)
+			return decode(path, options);
+		
+		// Region of the source that covers the requested aspect ratio
+		int regionWidth = Math.min(width, Math.round(reqWidth / scale));
+		int regionHeight = Math.min(height, Math.round(reqHeight / scale));
+		options.inSampleSize = calculateInSampleSize(regionWidth, regionHeight, reqWidth, reqHeight);
+		
+		Bitmap bitmap;
+		if(regionWidth < width || regionHeight < height) {
+			int left = (width - regionWidth) / 2;
+			int top = (height - regionHeight) / 2;
+			
+			BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(path, false);
+			Runnable cancel = registerCancel(options);
+			try {
+				bitmap = decoder.decodeRegion(new Rect(left, top, left + regionWidth, top + regionHeight), options);
+			}
+			finally {
+				Cancellation.unregister(cancel);
+				decoder.recycle();
+			}
+		}
+		else {
+			bitmap = decode(path, options);
+		}
+		
+		if(bitmap == null) {
+			Cancellation.throwIfCancelled("decoding " + path);
+			throw new IOException("Unable to decode " + path);
+		}
+		
+		// Don't spend time scaling something nobody wants anymore
+		if(Cancellation.isCancelled()) {
+			bitmap.recycle();
+			Cancellation.throwIfCancelled("decoding " + path);
+		}
+		
+		// Subsampling only gets us within a power of two, scale down the rest
+		return scaleDown(bitmap, reqWidth, reqHeight);
+	}
+	
+	/**
+	 * Returns the largest power of two sample size that keeps 
+	 * the decoded image at least as large as requested.
+	 * 
+	 * @param width
+	 * @param height
+	 * @param reqWidth
+	 * @param reqHeight
+	 * @return
+	 */
+	public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight)
+	{
+		int inSampleSize = 1;
+		
+		if(reqWidth <= 0 || reqHeight <= 0)
+			return inSampleSize;
+		
+		while((width / (inSampleSize * 2)) >= reqWidth && (height / (inSampleSize * 2)) >= reqHeight) {
+			inSampleSize *= 2;
+		}
+		
+		return inSampleSize;
+	}
+	
+	private static Bitmap decode(String path, BitmapFactory.Options options) throws IOException
+	{
+		Bitmap bitmap;
+		Runnable cancel = registerCancel(options);
+		try {
+			bitmap = BitmapFactory.decodeFile(path, options);
+		}
+		finally {
+			Cancellation.unregister(cancel);
+		}
+		
+		if(bitmap == null) {
+			// A cancelled decode comes back empty too
+			Cancellation.throwIfCancelled("decoding " + path);
+			throw new IOException("Unable to decode " + path);
+		}
+		
+		return bitmap;
+	}
+	
+	/**
+	 * Stops the decode using the options passed half way 
+	 * if the work on this thread is cancelled.
+	 */
+	@SuppressWarnings("deprecation")
+	private static Runnable registerCancel(final BitmapFactory.Options options)
+	{
+		return Cancellation.register(new Runnable() {
+			@Override
+			public void run() {
+				options.requestCancelDecode();
+			}
+		});
+	}
+	
+	private static Bitmap scaleDown(Bitmap bitmap, int reqWidth, int reqHeight)
+	{
+		if(bitmap.getWidth() <= reqWidth && bitmap.getHeight() <= reqHeight)
+			return bitmap;
+		
+		Bitmap scaled = Bitmap.createScaledBitmap(bitmap, reqWidth, reqHeight, true);
+		if(scaled != bitmap)
+			bitmap.recycle();
+		
+		return scaled;
+	}
+}
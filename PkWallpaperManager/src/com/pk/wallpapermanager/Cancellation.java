@@ -0,0 +1,183 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.pk.wallpapermanager;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lets work deep inside a {@link WallpaperFuture} be stopped right away 
+ * when the future is cancelled, rather than at the next interrupt check.
+ * <p>
+ * A future makes its cancellation current on the thread running it. Code 
+ * holding something that blocks, like a response being read or a bitmap 
+ * being decoded, registers an action that unblocks it and unregisters it 
+ * once done. Cancelling runs every registered action from the cancelling 
+ * thread. Code not running inside a future registers nothing.
+ */
+final class Cancellation
+{
+	private static final ThreadLocal<Cancellation> sCurrent = new ThreadLocal<Cancellation>();
+	
+	private final List<Runnable> mActions;
+	private volatile boolean mCancelled;
+	
+	public Cancellation()
+	{
+		this.mActions = new ArrayList<Runnable>();
+		this.mCancelled = false;
+	}
+	
+	/**
+	 * Returns the cancellation of the work on this thread, null if there is none.
+	 * 
+	 * @return
+	 */
+	public static Cancellation current()
+	{
+		return sCurrent.get();
+	}
+	
+	/**
+	 * Returns true if the work on this thread was cancelled or interrupted.
+	 * 
+	 * @return
+	 */
+	public static boolean isCancelled()
+	{
+		Cancellation cancellation = sCurrent.get();
+		return Thread.currentThread().isInterrupted() || (cancellation != null && cancellation.mCancelled);
+	}
+	
+	/**
+	 * Throws if the work on this thread was cancelled or interrupted.
+	 * 
+	 * @param what	What we were doing, for the exception message
+	 * @throws InterruptedIOException
+	 */
+	public static void throwIfCancelled(String what) throws InterruptedIOException
+	{
+		if(isCancelled())
+			throw new InterruptedIOException("Cancelled " + what);
+	}
+	
+	/**
+	 * Runs the action passed once the work on this thread is cancelled, 
+	 * right away if it already is. Unregister it once it's no longer needed.
+	 * 
+	 * @param action
+	 * @return	The action passed, for unregistering
+	 */
+	public static Runnable register(Runnable action)
+	{
+		Cancellation cancellation = sCurrent.get();
+		if(cancellation == null)
+			return action;
+		
+		synchronized(cancellation) {
+			if(!cancellation.mCancelled) {
+				cancellation.mActions.add(action);
+				return action;
+			}
+		}
+		
+		action.run();
+		return action;
+	}
+	
+	/**
+	 * Aborts the response passed once the work on this thread is cancelled.
+	 * 
+	 * @param response
+	 * @return	The action to unregister once the response is closed
+	 */
+	public static Runnable register(final WallpaperTransport.Response response)
+	{
+		return register(new Runnable() {
+			@Override
+			public void run() {
+				response.abort();
+			}
+		});
+	}
+	
+	public static void unregister(Runnable action)
+	{
+		Cancellation cancellation = sCurrent.get();
+		if(cancellation == null)
+			return;
+		
+		synchronized(cancellation) {
+			cancellation.mActions.remove(action);
+		}
+	}
+	
+	/**
+	 * Makes this the cancellation of the work on the calling thread 
+	 * until {@link #restore} is called with the one returned.
+	 * 
+	 * @return	The cancellation that was current before, if any
+	 */
+	public Cancellation attach()
+	{
+		Cancellation previous = sCurrent.get();
+		sCurrent.set(this);
+		return previous;
+	}
+	
+	public static void restore(Cancellation previous)
+	{
+		if(previous == null)
+			sCurrent.remove();
+		else
+			sCurrent.set(previous);
+	}
+	
+	/**
+	 * Marks the work cancelled and runs every registered action.
+	 */
+	public void cancel()
+	{
+		List<Runnable> actions;
+		synchronized(this) {
+			if(mCancelled)
+				return;
+			
+			mCancelled = true;
+			actions = new ArrayList<Runnable>(mActions);
+			mActions.clear();
+		}
+		
+		for(Runnable action : actions) {
+			try {
+				action.run();
+			}
+			catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.pk.wallpapermanager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What changed in the cloud wallpapers between two catalog versions.
+ * <p>
+ * Wallpapers are matched by their relative full URL. A URL listed 
+ * more than once is matched by occurrence, so the second one in the 
+ * old list matches the second one in the new list. Positions of 
+ * removed wallpapers refer to the old list, positions of added and 
+ * changed wallpapers refer to the new list.
+ */
+public final class CatalogDiff
+{
+	private final long mOldVersion;
+	private final long mNewVersion;
+	private final List<Wallpaper> mAdded;
+	private final int[] mAddedPositions;
+	private final List<Wallpaper> mRemoved;
+	private final int[] mRemovedPositions;
+	private final List<Wallpaper> mChanged;
+	private final int[] mChangedPositions;
+	
+	private CatalogDiff(long oldVersion, long newVersion, List<Wallpaper> added, int[] addedPositions, List<Wallpaper> removed, int[] removedPositions, List<Wallpaper> changed, int[] changedPositions)
+	{
+		this.mOldVersion = oldVersion;
+		this.mNewVersion = newVersion;
+		this.mAdded = Collections.unmodifiableList(added);
+		this.mAddedPositions = addedPositions;
+		this.mRemoved = Collections.unmodifiableList(removed);
+		this.mRemovedPositions = removedPositions;
+		this.mChanged = Collections.unmodifiableList(changed);
+		this.mChangedPositions = changedPositions;
+	}
+	
+	/**
+	 * Compares the cloud wallpapers of both catalogs passed.
+	 * 
+	 * @param oldCatalog
+	 * @param newCatalog
+	 * @return
+	 */
+	public static CatalogDiff compute(WallpaperCatalog oldCatalog, WallpaperCatalog newCatalog)
+	{
+		List<Wallpaper> oldWallpapers = oldCatalog.getCloudWallpapers();
+		List<Wallpaper> newWallpapers = newCatalog.getCloudWallpapers();
+		
+		// Whatever is left in here once the new list was walked has been removed
+		Map<String, LinkedList<Integer>> oldPositions = new HashMap<String, LinkedList<Integer>>(oldWallpapers.size() * 2);
+		int remaining = 0;
+		for(int i = 0; i < oldWallpapers.size(); i++) {
+			String key = oldWallpapers.get(i).getRelativeFullURL();
+			LinkedList<Integer> positions = oldPositions.get(key);
+			if(positions == null) {
+				positions = new LinkedList<Integer>();
+				oldPositions.put(key, positions);
+			}
+			
+			positions.add(i);
+			remaining++;
+		}
+		
+		List<Wallpaper> added = new ArrayList<Wallpaper>();
+		List<Integer> addedPositions = new ArrayList<Integer>();
+		List<Wallpaper> changed = new ArrayList<Wallpaper>();
+		List<Integer> changedPositions = new ArrayList<Integer>();
+		
+		for(int i = 0; i < newWallpapers.size(); i++) {
+			Wallpaper mWall = newWallpapers.get(i);
+			LinkedList<Integer> positions = oldPositions.get(mWall.getRelativeFullURL());
+			Integer position = positions != null ? positions.poll() : null;
+			
+			if(position == null) {
+				added.add(mWall);
+				addedPositions.add(i);
+			}
+			else {
+				remaining--;
+				if(!hasSameContent(oldWallpapers.get(position), mWall)) {
+					changed.add(mWall);
+					changedPositions.add(i);
+				}
+			}
+		}
+		
+		int[] removedPositions = new int[remaining];
+		int r = 0;
+		for(LinkedList<Integer> positions : oldPositions.values()) {
+			for(Integer position : positions) {
+				removedPositions[r++] = position;
+			}
+		}
+		Arrays.sort(removedPositions);
+		
+		List<Wallpaper> removed = new ArrayList<Wallpaper>(removedPositions.length);
+		for(int position : removedPositions) {
+			removed.add(oldWallpapers.get(position));
+		}
+		
+		return new CatalogDiff(oldCatalog.getVersion(), newCatalog.getVersion(), added, toArray(addedPositions), removed, removedPositions, changed, toArray(changedPositions));
+	}
+	
+	/**
+	 * Diff for wallpapers appended after the existing cloud wallpapers, 
+	 * without comparing anything.
+	 * 
+	 * @param oldCatalog
+	 * @param newCatalog
+	 * @param appended
+	 * @return
+	 */
+	static CatalogDiff appended(WallpaperCatalog oldCatalog, WallpaperCatalog newCatalog, List<Wallpaper> appended)
+	{
+		int start = oldCatalog.getCloudWallpapers().size();
+		int[] positions = new int[appended.size()];
+		for(int i = 0; i < positions.length; i++) {
+			positions[i] = start + i;
+		}
+		
+		return new CatalogDiff(oldCatalog.getVersion(), newCatalog.getVersion(), new ArrayList<Wallpaper>(appended), positions, new ArrayList<Wallpaper>(), new int[0], new ArrayList<Wallpaper>(), new int[0]);
+	}
+	
+	/** Catalog version this diff starts from. */
+	public long getOldVersion()
+	{
+		return mOldVersion;
+	}
+	
+	/** Catalog version this diff leads to. */
+	public long getNewVersion()
+	{
+		return mNewVersion;
+	}
+	
+	public List<Wallpaper> getAdded()
+	{
+		return mAdded;
+	}
+	
+	/** Positions of the added wallpapers in the new list, ascending. */
+	public int[] getAddedPositions()
+	{
+		return mAddedPositions.clone();
+	}
+	
+	public List<Wallpaper> getRemoved()
+	{
+		return mRemoved;
+	}
+	
+	/** Positions of the removed wallpapers in the old list, ascending. */
+	public int[] getRemovedPositions()
+	{
+		return mRemovedPositions.clone();
+	}
+	
+	/** New versions of the wallpapers whose details changed. */
+	public List<Wallpaper> getChanged()
+	{
+		return mChanged;
+	}
+	
+	/** Positions of the changed wallpapers in the new list, ascending. */
+	public int[] getChangedPositions()
+	{
+		return mChangedPositions.clone();
+	}
+	
+	/**
+	 * Returns whether nothing was added, removed or changed.
+	 * 
+	 * @return
+	 */
+	public boolean isEmpty()
+	{
+		return mAdded.isEmpty() && mRemoved.isEmpty() && mChanged.isEmpty();
+	}
+	
+	@Override
+	public String toString() {
+		return "Version: " + mOldVersion + " -> " + mNewVersion + ", Added: " + mAdded.size() + ", Removed: " + mRemoved.size() + ", Changed: " + mChanged.size();
+	}
+	
+	/**
+	 * Compares every detail shown for a cloud wallpaper.
+	 */
+	private static boolean hasSameContent(Wallpaper a, Wallpaper b)
+	{
+		return a.getFileSize() == b.getFileSize()
+			&& equals(a.getSha256(), b.getSha256())
+			&& equals(a.getPathURL(), b.getPathURL())
+			&& equals(a.getRelativeThumbURL(), b.getRelativeThumbURL())
+			&& equals(a.getTitle(), b.getTitle())
+			&& equals(a.getByLine(), b.getByLine());
+	}
+	
+	private static boolean equals(String a, String b)
+	{
+		return a == null ? b == null : a.equals(b);
+	}
+	
+	private static int[] toArray(List<Integer> values)
+	{
+		int[] array = new int[values.size()];
+		for(int i = 0; i < array.length; i++) {
+			array[i] = values.get(i);
+		}
+		
+		return array;
+	}
+}
@@ -0,0 +1,264 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.pk.wallpapermanager;
+
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.net.Uri;
+
+/**
+ * Compact binary snapshot of the wallpaper catalog.
+ * <p>
+ * Written after every successful fetch and read back in a single 
+ * sequential pass on startup so wallpapers are available before 
+ * any network request finishes.
+ */
+class CatalogSnapshot
+{
+	// File format
+	private static final int MAGIC = 0x504B5753; // "PKWS"
+	private static final int FORMAT_VERSION = 3;
+	private static final String FILE_NAME = "wallpapers.snapshot";
+	
+	private final File mFile;
+	private final File mTempFile;
+	private final int mAppVersion;
+	private final long mAppUpdateTime;
+	
+	public CatalogSnapshot(Context context)
+	{
+		this.mFile = new File(context.getFilesDir(), FILE_NAME);
+		this.mTempFile = new File(context.getFilesDir(), FILE_NAME + ".tmp");
+		this.mAppVersion = getAppVersion(context);
+		this.mAppUpdateTime = getAppUpdateTime(context);
+	}
+	
+	/**
+	 * Writes both wallpaper lists to disk. The previous snapshot is 
+	 * only replaced once the new one has been fully written.
+	 * 
+	 * @param localWallpapers
+	 * @param cloudWallpapers
+	 * @throws IOException
+	 */
+	public synchronized void save(List<Wallpaper> localWallpapers, List<Wallpaper> cloudWallpapers) throws IOException
+	{
+		// Most cloud wallpapers share the same base path, only store it once
+		List<String> paths = new ArrayList<String>();
+		Map<String, Integer> pathIndex = new HashMap<String, Integer>();
+		collectPaths(localWallpapers, paths, pathIndex);
+		collectPaths(cloudWallpapers, paths, pathIndex);
+		
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mTempFile), 8192));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(FORMAT_VERSION);
+			output.writeInt(mAppVersion);
+			output.writeLong(mAppUpdateTime);
+			
+			output.writeInt(paths.size());
+			for(String path : paths) {
+				writeString(output, path);
+			}
+			
+			writeWallpapers(output, localWallpapers, pathIndex);
+			writeWallpapers(output, cloudWallpapers, pathIndex);
+		}
+		finally {
+			output.close();
+		}
+		
+		if(!mTempFile.renameTo(mFile)) {
+			mTempFile.delete();
+			throw new IOException("Unable to replace catalog snapshot");
+		}
+	}
+	
+	/**
+	 * Reads the snapshot back into the lists passed.
+	 * Returns false if there is no usable snapshot, in which case 
+	 * the lists are left untouched.
+	 * 
+	 * @param localWallpapers
+	 * @param cloudWallpapers
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized boolean load(List<Wallpaper> localWallpapers, List<Wallpaper> cloudWallpapers) throws IOException
+	{
+		if(!mFile.exists())
+			return false;
+		
+		// Pull the whole file in with one read
+		byte[] data;
+		RandomAccessFile file = new RandomAccessFile(mFile, "r");
+		try {
+			data = new byte[(int) file.length()];
+			file.readFully(data);
+		}
+		finally {
+			file.close();
+		}
+		
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+		if(input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION)
+			return false;
+		
+		// Resource IDs are only valid for the build that wrote them, 
+		// development builds often share a version code
+		if(input.readInt() != mAppVersion || input.readLong() != mAppUpdateTime)
+			return false;
+		
+		String[] paths = new String[input.readInt()];
+		for(int index = 0; index < paths.length; index++) {
+			paths[index] = input.readUTF().intern();
+		}
+		
+		List<Wallpaper> local = readWallpapers(input, paths);
+		List<Wallpaper> cloud = readWallpapers(input, paths);
+		
+		localWallpapers.clear();
+		localWallpapers.addAll(local);
+		cloudWallpapers.clear();
+		cloudWallpapers.addAll(cloud);
+		
+		return true;
+	}
+	
+	/**
+	 * Deletes the snapshot from disk.
+	 */
+	public synchronized void clear()
+	{
+		mFile.delete();
+		mTempFile.delete();
+	}
+	
+	private static void collectPaths(List<Wallpaper> wallpapers, List<String> paths, Map<String, Integer> pathIndex)
+	{
+		for(Wallpaper mWall : wallpapers) {
+			if(!pathIndex.containsKey(mWall.getPathURL())) {
+				pathIndex.put(mWall.getPathURL(), paths.size());
+				paths.add(mWall.getPathURL());
+			}
+		}
+	}
+	
+	private static void writeWallpapers(DataOutputStream output, List<Wallpaper> wallpapers, Map<String, Integer> pathIndex) throws IOException
+	{
+		output.writeInt(wallpapers.size());
+		for(Wallpaper mWall : wallpapers) {
+			output.writeBoolean(mWall.isLocal());
+			output.writeInt(pathIndex.get(mWall.getPathURL()));
+			writeString(output, mWall.getRelativeFullURL());
+			writeString(output, mWall.getRelativeThumbURL());
+			output.writeInt(mWall.getFullResource());
+			output.writeInt(mWall.getThumbResource());
+			writeString(output, mWall.getTitle());
+			writeString(output, mWall.getByLine());
+			output.writeLong(mWall.getFileSize());
+			writeString(output, mWall.getSha256());
+			
+			// Cloud Uris can be rebuilt from their URLs
+			if(mWall.isLocal()) {
+				output.writeUTF(mWall.getFullUri().toString());
+				output.writeUTF(mWall.getThumbUri().toString());
+			}
+		}
+	}
+	
+	private static void writeString(DataOutputStream output, String value) throws IOException
+	{
+		output.writeUTF(value == null ? "" : value);
+	}
+	
+	private static List<Wallpaper> readWallpapers(DataInputStream input, String[] paths) throws IOException
+	{
+		int size = input.readInt();
+		List<Wallpaper> wallpapers = new ArrayList<Wallpaper>(size);
+		
+		for(int index = 0; index < size; index++) {
+			Wallpaper mWall = new Wallpaper();
+			mWall.setLocal(input.readBoolean());
+			mWall.setPathURL(paths[input.readInt()]);
+			mWall.setRelativeFullURL(input.readUTF());
+			mWall.setRelativeThumbURL(input.readUTF());
+			mWall.setFullResource(input.readInt());
+			mWall.setThumbResource(input.readInt());
+			mWall.setTitle(input.readUTF());
+			mWall.setByLine(input.readUTF());
+			mWall.setFileSize(input.readLong());
+			
+			String sha256 = input.readUTF();
+			mWall.setSha256(sha256.length() > 0 ? sha256 : null);
+			
+			// Cloud Uris are built from their URLs when asked for
+			if(mWall.isLocal()) {
+				mWall.setFullUri(Uri.parse(input.readUTF()));
+				mWall.setThumbUri(Uri.parse(input.readUTF()));
+			}
+			
+			wallpapers.add(mWall);
+		}
+		
+		return wallpapers;
+	}
+	
+	static int getAppVersion(Context context)
+	{
+		try {
+			return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).versionCode;
+		}
+		catch (NameNotFoundException e) {
+			return 0;
+		}
+	}
+	
+	/**
+	 * Returns when the app was last installed or updated, which tells 
+	 * apart builds that share the same version code.
+	 */
+	static long getAppUpdateTime(Context context)
+	{
+		try {
+			return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+		}
+		catch (NameNotFoundException e) {
+			return 0;
+		}
+	}
+}
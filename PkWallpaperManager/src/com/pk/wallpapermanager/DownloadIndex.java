@@ -0,0 +1,289 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.pk.wallpapermanager;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.Context;
+
+/**
+ * Downloaded wallpapers by the SHA-256 of their content.
+ * <p>
+ * Every finished download is recorded here along with its length and 
+ * modification time. A wallpaper whose manifest entry carries the same 
+ * hash is then served from the file already on disk, even if it was 
+ * saved under another name, as long as the file wasn't touched since.
+ */
+class DownloadIndex
+{
+	// File format
+	private static final int MAGIC = 0x504B4449; // "PKDI"
+	private static final int FORMAT_VERSION = 1;
+	private static final String FILE_NAME = "downloads.index";
+	
+	private static final String ALGORITHM = "SHA-256";
+	private static final int BUFFER_SIZE = 8192;
+	
+	private final File mFile;
+	private final File mTempFile;
+	
+	// Loaded on first use
+	private Map<String, Entry> mEntries;
+	
+	public DownloadIndex(Context context)
+	{
+		this.mFile = new File(context.getFilesDir(), FILE_NAME);
+		this.mTempFile = new File(context.getFilesDir(), FILE_NAME + ".tmp");
+		this.mEntries = null;
+	}
+	
+	/**
+	 * Returns the downloaded file with the hash passed, or null if there's 
+	 * none or it was changed or removed since it was recorded.
+	 * 
+	 * @param sha256
+	 * @param length	Expected length, or 0 or less if unknown
+	 * @return
+	 */
+	public synchronized File find(String sha256, long length)
+	{
+		Entry entry = getEntries().get(sha256);
+		if(entry == null)
+			return null;
+		
+		File file = new File(entry.path);
+		if(file.isFile() && file.length() == entry.length && file.lastModified() == entry.lastModified && (length <= 0 || length == entry.length))
+			return file;
+		
+		// Gone or touched, we can't vouch for its bytes anymore
+		mEntries.remove(sha256);
+		trySave();
+		return null;
+	}
+	
+	/**
+	 * Records the downloaded file passed under its hash.
+	 * 
+	 * @param sha256
+	 * @param file
+	 */
+	public synchronized void put(String sha256, File file)
+	{
+		getEntries().put(sha256, new Entry(file.getAbsolutePath(), file.length(), file.lastModified()));
+		trySave();
+	}
+	
+	/**
+	 * Deletes the index from disk. Downloaded files are left alone.
+	 */
+	public synchronized void clear()
+	{
+		mEntries = new HashMap<String, Entry>();
+		mFile.delete();
+		mTempFile.delete();
+	}
+	
+	/**
+	 * Returns a new SHA-256 digest.
+	 * 
+	 * @return
+	 */
+	public static MessageDigest newDigest()
+	{
+		try {
+			return MessageDigest.getInstance(ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException e) {
+			// Every Android device has it
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Returns the SHA-256 of the file passed in lowercase hex.
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static String hash(File file) throws IOException
+	{
+		MessageDigest digest = newDigest();
+		update(digest, file, Long.MAX_VALUE);
+		
+		return toHex(digest.digest());
+	}
+	
+	/**
+	 * Feeds up to <code>length</code> bytes from the start of the file passed into the digest.
+	 * 
+	 * @param digest
+	 * @param file
+	 * @param length
+	 * @throws IOException
+	 */
+	public static void update(MessageDigest digest, File file, long length) throws IOException
+	{
+		InputStream input = new FileInputStream(file);
+		try {
+			byte[] data = new byte[BUFFER_SIZE];
+			long remaining = length;
+			int count;
+			
+			while(remaining > 0 && (count = input.read(data, 0, (int) Math.min(data.length, remaining))) != -1) {
+				Cancellation.throwIfCancelled("hashing " + file);
+				
+				digest.update(data, 0, count);
+				remaining -= count;
+			}
+		}
+		finally {
+			input.close();
+		}
+	}
+	
+	public static String toHex(byte[] hash)
+	{
+		StringBuilder builder = new StringBuilder(hash.length * 2);
+		for(byte b : hash) {
+			builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+			builder.append(Character.forDigit(b & 0xF, 16));
+		}
+		
+		return builder.toString();
+	}
+	
+	private Map<String, Entry> getEntries()
+	{
+		if(mEntries != null)
+			return mEntries;
+		
+		try {
+			mEntries = load();
+		}
+		catch (IOException e) {
+			// A broken index is no worse than no index at all
+			mFile.delete();
+			e.printStackTrace();
+		}
+		
+		if(mEntries == null)
+			mEntries = new HashMap<String, Entry>();
+		
+		return mEntries;
+	}
+	
+	private Map<String, Entry> load() throws IOException
+	{
+		if(!mFile.exists())
+			return null;
+		
+		// Pull the whole file in with one read
+		byte[] data;
+		RandomAccessFile file = new RandomAccessFile(mFile, "r");
+		try {
+			data = new byte[(int) file.length()];
+			file.readFully(data);
+		}
+		finally {
+			file.close();
+		}
+		
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+		if(input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION)
+			return null;
+		
+		int size = input.readInt();
+		Map<String, Entry> entries = new HashMap<String, Entry>(size * 2);
+		for(int index = 0; index < size; index++) {
+			String sha256 = input.readUTF();
+			entries.put(sha256, new Entry(input.readUTF(), input.readLong(), input.readLong()));
+		}
+		
+		return entries;
+	}
+	
+	private void trySave()
+	{
+		try {
+			save();
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private void save() throws IOException
+	{
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mTempFile), BUFFER_SIZE));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(FORMAT_VERSION);
+			output.writeInt(mEntries.size());
+			
+			for(Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+				output.writeUTF(entry.getKey());
+				output.writeUTF(entry.getValue().path);
+				output.writeLong(entry.getValue().length);
+				output.writeLong(entry.getValue().lastModified);
+			}
+		}
+		finally {
+			output.close();
+		}
+		
+		if(!mTempFile.renameTo(mFile)) {
+			mTempFile.delete();
+			throw new IOException("Unable to replace download index");
+		}
+	}
+	
+	private static class Entry
+	{
+		public final String path;
+		public final long length;
+		public final long lastModified;
+		
+		public Entry(String path, long length, long lastModified)
+		{
+			this.path = path;
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+	}
+}
@@ -0,0 +1,334 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.pk.wallpapermanager;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs downloads on a bounded number of threads.
+ * <p>
+ * User-initiated downloads always run before prefetches, and 
+ * downloads scheduled while one for the same URL is still queued 
+ * or running are merged into that one.
+ */
+public class DownloadScheduler
+{
+	/** Download lanes, in the order they are served. */
+	public enum Priority
+	{
+		USER,
+		PREFETCH
+	}
+	
+	private static final long KEEP_ALIVE_SECONDS = 30;
+	
+	private final ThreadPoolExecutor mExecutor;
+	
+	// Downloads queued or running, keyed by URL
+	private final ConcurrentHashMap<String, Job> mJobs;
+	
+	// Keeps jobs of the same priority in the order they were scheduled
+	private final AtomicLong mSequence;
+	
+	// Statistics
+	private final AtomicInteger mMergedCount;
+	
+	public DownloadScheduler(int maxConcurrentDownloads)
+	{
+		this.mExecutor = new ThreadPoolExecutor(maxConcurrentDownloads, maxConcurrentDownloads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger mCount = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "PkWallpaperManager Download #" + mCount.incrementAndGet());
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		this.mExecutor.allowCoreThreadTimeOut(true);
+		this.mJobs = new ConcurrentHashMap<String, Job>();
+		this.mSequence = new AtomicLong();
+		this.mMergedCount = new AtomicInteger();
+	}
+	
+	/**
+	 * Schedules the download passed. If a download for the same URL 
+	 * is already queued or running, nothing new is scheduled; a queued 
+	 * prefetch is promoted if the new request is user-initiated.
+	 * 
+	 * @param url
+	 * @param priority
+	 * @param download
+	 * @return	True if a new download was scheduled, false if it was 
+	 * 			merged into one already in flight.
+	 */
+	public boolean schedule(String url, Priority priority, Runnable download)
+	{
+		return enqueue(url, priority, download, mExecutor) == null;
+	}
+	
+	/**
+	 * Schedules the future passed the same way as {@link #schedule}. 
+	 * If a download for the same URL is already queued or running, 
+	 * its future is returned instead and the one passed never runs. 
+	 * A cancelled download still winding down is never joined; the 
+	 * future passed starts once it has exited instead.
+	 * 
+	 * @param url
+	 * @param priority
+	 * @param future
+	 * @return	The future that will hold the result of the download
+	 */
+	public <V> WallpaperFuture<V> submit(String url, Priority priority, WallpaperFuture<V> future)
+	{
+		return submit(url, priority, future, mExecutor);
+	}
+	
+	/**
+	 * Schedules the future passed like {@link #submit(String, Priority, WallpaperFuture)} 
+	 * but runs it on the executor passed instead of our own threads. A 
+	 * download for the same URL that is still queued is moved onto that 
+	 * executor too, so callers holding one of our threads never wait on 
+	 * a download that has no thread left to run on.
+	 * 
+	 * @param url
+	 * @param priority
+	 * @param future
+	 * @param executor
+	 * @return	The future that will hold the result of the download
+	 */
+	@SuppressWarnings("unchecked")
+	public <V> WallpaperFuture<V> submit(String url, Priority priority, WallpaperFuture<V> future, Executor executor)
+	{
+		Job existing = enqueue(url, priority, future, executor);
+		if(existing == null)
+			return future;
+		
+		if(!(existing.mDownload instanceof WallpaperFuture))
+			throw new IllegalStateException(url + " is already scheduled without a future");
+		
+		// Don't hand out a download that was cancelled while it waited
+		WallpaperFuture<V> running = (WallpaperFuture<V>) existing.mDownload;
+		if(!running.isCancelled()) {
+			if(executor != mExecutor && mExecutor.remove(existing))
+				execute(existing, executor);
+			
+			return running;
+		}
+		
+		synchronized(existing) {
+			if(existing.mSuccessor != null)
+				return (WallpaperFuture<V>) existing.mSuccessor.mDownload;
+			
+			if(!existing.mFinished) {
+				Job successor = new Job(url, priority, mSequence.getAndIncrement(), future, executor);
+				
+				// Never started, so nothing is writing to its files yet
+				if(mExecutor.remove(existing)) {
+					existing.mFinished = true;
+					mJobs.replace(url, existing, successor);
+					execute(successor, executor);
+				}
+				// Still unwinding, start ours once it has let go of the files
+				else
+					existing.mSuccessor = successor;
+				
+				return future;
+			}
+		}
+		
+		// Finished meanwhile and already gave up its slot
+		return submit(url, priority, future, executor);
+	}
+	
+	/**
+	 * Queues a new job unless one for the same URL is in flight, 
+	 * in which case that one is returned.
+	 */
+	private Job enqueue(String url, Priority priority, Runnable download, Executor executor)
+	{
+		Job job = new Job(url, priority, mSequence.getAndIncrement(), download, executor);
+		Job existing = mJobs.putIfAbsent(url, job);
+		
+		if(existing != null) {
+			mMergedCount.incrementAndGet();
+			
+			// Move a queued prefetch into the user lane
+			if(priority.ordinal() < existing.mPriority.ordinal() && mExecutor.remove(existing)) {
+				existing.mPriority = priority;
+				execute(existing, existing.mRunner);
+			}
+			
+			return existing;
+		}
+		
+		execute(job, executor);
+		return null;
+	}
+	
+	/**
+	 * Runs the job on the executor passed, giving up its URL if 
+	 * the executor was already shut down.
+	 */
+	private void execute(Job job, Executor executor)
+	{
+		job.mRunner = executor;
+		try {
+			executor.execute(job);
+		}
+		catch (RejectedExecutionException e) {
+			mJobs.remove(job.mUrl, job);
+			
+			// Don't leave anyone waiting on it
+			if(job.mDownload instanceof Future)
+				((Future<?>) job.mDownload).cancel(false);
+		}
+	}
+	
+	/**
+	 * Returns true if a download for the URL passed is queued or running.
+	 * 
+	 * @param url
+	 * @return
+	 */
+	public boolean isScheduled(String url)
+	{
+		return mJobs.containsKey(url);
+	}
+	
+	/**
+	 * Changes how many downloads may run at the same time.
+	 * 
+	 * @param maxConcurrentDownloads
+	 */
+	public void setMaxConcurrentDownloads(int maxConcurrentDownloads)
+	{
+		// Grow the maximum first so the core size never exceeds it
+		if(maxConcurrentDownloads > mExecutor.getMaximumPoolSize()) {
+			mExecutor.setMaximumPoolSize(maxConcurrentDownloads);
+			mExecutor.setCorePoolSize(maxConcurrentDownloads);
+		}
+		else {
+			mExecutor.setCorePoolSize(maxConcurrentDownloads);
+			mExecutor.setMaximumPoolSize(maxConcurrentDownloads);
+		}
+	}
+	
+	public int getMaxConcurrentDownloads()
+	{
+		return mExecutor.getMaximumPoolSize();
+	}
+	
+	/** Number of downloads waiting for a free slot. */
+	public int getQueueDepth()
+	{
+		return mExecutor.getQueue().size();
+	}
+	
+	/** Number of downloads currently running. */
+	public int getActiveCount()
+	{
+		return mExecutor.getActiveCount();
+	}
+	
+	/** Number of requests merged into a download already in flight. */
+	public int getMergedCount()
+	{
+		return mMergedCount.get();
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		
+		builder.append("Max Concurrent Downloads: " + getMaxConcurrentDownloads() + "\n");
+		builder.append("Active: " + getActiveCount() + "\n");
+		builder.append("Queued: " + getQueueDepth() + "\n");
+		builder.append("Merged: " + getMergedCount() + "\n");
+		
+		return builder.toString();
+	}
+	
+	/** A scheduled download, ordered by priority and then by age. */
+	private class Job implements Runnable, Comparable<Job>
+	{
+		private final String mUrl;
+		private final long mSequence;
+		private final Runnable mDownload;
+		private volatile Priority mPriority;
+		private volatile Executor mRunner;
+		
+		// Guarded by this job
+		private Job mSuccessor;
+		private boolean mFinished;
+		
+		public Job(String url, Priority priority, long sequence, Runnable download, Executor executor)
+		{
+			this.mUrl = url;
+			this.mPriority = priority;
+			this.mSequence = sequence;
+			this.mDownload = download;
+			this.mRunner = executor;
+		}
+		
+		@Override
+		public void run()
+		{
+			try {
+				mDownload.run();
+			}
+			finally {
+				synchronized(this) {
+					mFinished = true;
+					
+					// Hand the URL straight over so nobody else starts a second writer
+					if(mSuccessor != null) {
+						mJobs.replace(mUrl, this, mSuccessor);
+						execute(mSuccessor, mSuccessor.mRunner);
+					}
+					else
+						mJobs.remove(mUrl, this);
+				}
+			}
+		}
+		
+		@Override
+		public int compareTo(Job another)
+		{
+			if(mPriority != another.mPriority)
+				return mPriority.ordinal() - another.mPriority.ordinal();
+			
+			return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+		}
+	}
+}
@@ -0,0 +1,345 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.pk.wallpapermanager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+
+/**
+ * The one HTTP client used for metadata, thumbnails and downloads.
+ * <p>
+ * Connections are pooled and kept alive between requests over both 
+ * HTTP and HTTPS, so repeated requests to the same host skip the 
+ * TCP and TLS handshakes. Gzip responses are decompressed on the fly.
+ */
+public class HttpTransport implements WallpaperTransport
+{
+	public static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+	public static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+	public static final String ENCODING_GZIP = "gzip";
+	
+	private final ThreadSafeClientConnManager mConnectionManager;
+	private final HttpClient mHttpClient;
+	private final int mMaxConnections;
+	
+	// Statistics
+	private final AtomicInteger mRequests;
+	private final AtomicInteger mActiveRequests;
+	
+	/**
+	 * Creates a transport using the timeouts and connection limit 
+	 * from the settings passed.
+	 * 
+	 * @param settings
+	 */
+	public HttpTransport(WallpaperSettings settings)
+	{
+		this(settings.getConnectTimeout(), settings.getReadTimeout(), settings.getMaxConnections());
+	}
+	
+	public HttpTransport(int connectTimeout, int readTimeout, int maxConnections)
+	{
+		// Basic HTTP parameters & manager set up
+		HttpParams parameters = new BasicHttpParams();
+		HttpProtocolParams.setVersion(parameters, HttpVersion.HTTP_1_1);
+		HttpProtocolParams.setContentCharset(parameters, HTTP.DEFAULT_CONTENT_CHARSET);
+		HttpProtocolParams.setUseExpectContinue(parameters, false);
+		HttpConnectionParams.setTcpNoDelay(parameters, true);
+		HttpConnectionParams.setSocketBufferSize(parameters, 8192);
+		HttpConnectionParams.setConnectionTimeout(parameters, connectTimeout);
+		HttpConnectionParams.setSoTimeout(parameters, readTimeout);
+		
+		// Every connection may go to the same storage host
+		ConnManagerParams.setMaxTotalConnections(parameters, maxConnections);
+		ConnManagerParams.setMaxConnectionsPerRoute(parameters, new ConnPerRouteBean(maxConnections));
+		ConnManagerParams.setTimeout(parameters, connectTimeout);
+		
+		SchemeRegistry schReg = new SchemeRegistry();
+		schReg.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+		schReg.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+		
+		// Finally, initialize our client with these parameters and manager
+		this.mConnectionManager = new ThreadSafeClientConnManager(parameters, schReg);
+		this.mHttpClient = new DefaultHttpClient(mConnectionManager, parameters);
+		this.mMaxConnections = maxConnections;
+		this.mRequests = new AtomicInteger();
+		this.mActiveRequests = new AtomicInteger();
+	}
+	
+	/**
+	 * Sends a GET request with the headers passed. Ask for gzip by 
+	 * passing an Accept-Encoding header; compressed responses are 
+	 * decompressed transparently.
+	 * 
+	 * @param url
+	 * @param headers	May be null.
+	 * @return
+	 * @throws IOException
+	 */
+	@Override
+	public Response get(String url, Map<String, String> headers) throws IOException
+	{
+		return execute(new HttpGet(url), headers);
+	}
+	
+	/**
+	 * Sends a HEAD request with the headers passed.
+	 * 
+	 * @param url
+	 * @param headers	May be null.
+	 * @return
+	 * @throws IOException
+	 */
+	@Override
+	public Response head(String url, Map<String, String> headers) throws IOException
+	{
+		return execute(new HttpHead(url), headers);
+	}
+	
+	/**
+	 * Closes connections that have been idle for longer than the time passed.
+	 * 
+	 * @param idleTime
+	 * @param unit
+	 */
+	public void closeIdleConnections(long idleTime, TimeUnit unit)
+	{
+		mConnectionManager.closeIdleConnections(idleTime, unit);
+	}
+	
+	/**
+	 * Closes all connections. This transport can't be used afterwards.
+	 */
+	@Override
+	public void shutdown()
+	{
+		mConnectionManager.shutdown();
+	}
+	
+	/** Number of connections currently open, idle or in use. */
+	public int getConnectionsInPool()
+	{
+		return mConnectionManager.getConnectionsInPool();
+	}
+	
+	/** Maximum number of connections kept open at once. */
+	public int getMaxConnections()
+	{
+		return mMaxConnections;
+	}
+	
+	/** Number of requests sent through this transport. */
+	public int getRequestCount()
+	{
+		return mRequests.get();
+	}
+	
+	/** Number of responses that haven't been closed yet. */
+	public int getActiveRequestCount()
+	{
+		return mActiveRequests.get();
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		
+		builder.append("Connections In Pool: " + getConnectionsInPool() + "/" + getMaxConnections() + "\n");
+		builder.append("Requests: " + getRequestCount() + "\n");
+		builder.append("Active Requests: " + getActiveRequestCount() + "\n");
+		
+		return builder.toString();
+	}
+	
+	private Response execute(HttpRequestBase request, Map<String, String> headers) throws IOException
+	{
+		if(headers != null) {
+			for(Map.Entry<String, String> header : headers.entrySet()) {
+				request.addHeader(header.getKey(), header.getValue());
+			}
+		}
+		
+		mRequests.incrementAndGet();
+		try {
+			HttpResponse response = mHttpClient.execute(request);
+			mActiveRequests.incrementAndGet();
+			return new PooledResponse(request, response);
+		}
+		catch (IOException e) {
+			request.abort();
+			throw e;
+		}
+	}
+	
+	/**
+	 * A response whose connection goes back to the pool once closed.
+	 */
+	private class PooledResponse implements Response
+	{
+		private final HttpRequestBase mRequest;
+		private final HttpResponse mResponse;
+		private InputStream mContent;
+		private boolean mClosed;
+		
+		private PooledResponse(HttpRequestBase request, HttpResponse response)
+		{
+			this.mRequest = request;
+			this.mResponse = response;
+			this.mContent = null;
+			this.mClosed = false;
+		}
+		
+		@Override
+		public int getStatusCode()
+		{
+			return mResponse.getStatusLine().getStatusCode();
+		}
+		
+		@Override
+		public String getReasonPhrase()
+		{
+			return mResponse.getStatusLine().getReasonPhrase();
+		}
+		
+		/**
+		 * Returns the first value of the header passed or null.
+		 * 
+		 * @param name
+		 * @return
+		 */
+		@Override
+		public String getHeader(String name)
+		{
+			Header header = mResponse.getFirstHeader(name);
+			return header == null ? null : header.getValue();
+		}
+		
+		/**
+		 * Length of the body as sent over the wire, -1 if unknown.
+		 * 
+		 * @return
+		 */
+		@Override
+		public long getContentLength()
+		{
+			HttpEntity entity = mResponse.getEntity();
+			return entity == null ? -1 : entity.getContentLength();
+		}
+		
+		/**
+		 * Returns the body, decompressed if it was sent gzipped. 
+		 * 
+		 * @return
+		 * @throws IOException
+		 */
+		@Override
+		public InputStream getContent() throws IOException
+		{
+			if(mContent != null)
+				return mContent;
+			
+			HttpEntity entity = mResponse.getEntity();
+			if(entity == null)
+				throw new IOException("Response has no body");
+			
+			mContent = entity.getContent();
+			if(ENCODING_GZIP.equalsIgnoreCase(getHeader(HEADER_CONTENT_ENCODING)))
+				mContent = new GZIPInputStream(mContent);
+			
+			return mContent;
+		}
+		
+		/**
+		 * Releases the connection back to the pool. Whatever is left of 
+		 * the body is read first, so only close responses that are done 
+		 * or nearly done; {@link #abort()} the rest.
+		 * 
+		 * @throws IOException
+		 */
+		@Override
+		public void close() throws IOException
+		{
+			if(!markClosed())
+				return;
+			
+			mActiveRequests.decrementAndGet();
+			
+			HttpEntity entity = mResponse.getEntity();
+			if(entity != null)
+				entity.consumeContent();
+		}
+		
+		/**
+		 * Drops the connection instead of returning it to the pool.
+		 */
+		@Override
+		public void abort()
+		{
+			if(!markClosed())
+				return;
+			
+			mActiveRequests.decrementAndGet();
+			mRequest.abort();
+		}
+		
+		/**
+		 * Returns true for whoever gets here first, abort may 
+		 * be called from another thread while we're reading.
+		 */
+		private synchronized boolean markClosed()
+		{
+			if(mClosed)
+				return false;
+			
+			mClosed = true;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,672 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.pk.wallpapermanager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A small HTTP/1.1 server running inside this process, meant to stand 
+ * in for the wallpaper host when measuring or tuning the library 
+ * without a network.
+ * <p>
+ * It serves whatever was added to it over keep-alive connections with 
+ * support for HEAD, Range/If-Range, If-None-Match and gzip, and can 
+ * simulate latency, limited bandwidth, failed requests and dropped 
+ * connections. Point the settings' storage URL at {@link #getBaseURL()}.
+ */
+public class LocalWallpaperServer
+{
+	private static final String CHARSET = "ISO-8859-1";
+	private static final String CRLF = "\r\n";
+	private static final int SOCKET_TIMEOUT = 30000;
+	
+	// Everything we can serve, keyed by path
+	private final Map<String, Route> mRoutes;
+	private final Random mRandom;
+	
+	private ServerSocket mServerSocket;
+	private ExecutorService mExecutor;
+	private final Set<Socket> mSockets;
+	private volatile boolean mRunning;
+	
+	// Simulated conditions
+	private volatile long mLatency;
+	private volatile long mBandwidth;
+	private volatile double mFailureRate;
+	private volatile double mDropRate;
+	
+	// Statistics
+	private final AtomicInteger mConnections;
+	private final AtomicInteger mRequests;
+	private final AtomicInteger mFailures;
+	private final AtomicInteger mDrops;
+	private final AtomicLong mBytesSent;
+	
+	public LocalWallpaperServer()
+	{
+		this.mRoutes = new ConcurrentHashMap<String, Route>();
+		this.mRandom = new Random();
+		this.mSockets = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+		this.mRunning = false;
+		this.mLatency = 0;
+		this.mBandwidth = 0;
+		this.mFailureRate = 0;
+		this.mDropRate = 0;
+		this.mConnections = new AtomicInteger();
+		this.mRequests = new AtomicInteger();
+		this.mFailures = new AtomicInteger();
+		this.mDrops = new AtomicInteger();
+		this.mBytesSent = new AtomicLong();
+	}
+	
+	/**
+	 * Starts listening on a free port of the loopback interface.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void start() throws IOException
+	{
+		if(mRunning)
+			return;
+		
+		mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		mExecutor = Executors.newCachedThreadPool();
+		mRunning = true;
+		
+		mExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				acceptConnections();
+			}
+		});
+	}
+	
+	/**
+	 * Stops listening and closes every open connection.
+	 */
+	public synchronized void stop()
+	{
+		if(!mRunning)
+			return;
+		
+		mRunning = false;
+		try {
+			mServerSocket.close();
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+		// Wake up connections blocked waiting for their next request
+		for(Socket socket : mSockets) {
+			closeQuietly(socket);
+		}
+		mExecutor.shutdownNow();
+	}
+	
+	/**
+	 * Returns the URL this server is reachable at, without a trailing slash.
+	 * 
+	 * @return
+	 */
+	public String getBaseURL()
+	{
+		if(!mRunning)
+			throw new IllegalStateException("Server hasn't been started");
+		
+		return "http://127.0.0.1:" + mServerSocket.getLocalPort();
+	}
+	
+	/**
+	 * Serves the content passed at the path passed.
+	 * 
+	 * @param path	Absolute path, such as "/wallpapers/full/1.jpg".
+	 * @param content
+	 * @param contentType
+	 */
+	public void addFile(String path, byte[] content, String contentType)
+	{
+		mRoutes.put(path, new Route(content, contentType));
+	}
+	
+	/**
+	 * Removes whatever was served at the path passed.
+	 * 
+	 * @param path
+	 */
+	public void removeFile(String path)
+	{
+		mRoutes.remove(path);
+	}
+	
+	/**
+	 * Generates a catalog of the size passed under the wallpaper path passed: 
+	 * a manifest named {@link PkWallpaperManager#DEFAULT_METADATA_FILE_NAME} 
+	 * and a full image and thumbnail for every entry. All entries share the 
+	 * same image data so large catalogs stay cheap to serve.
+	 * 
+	 * @param wallpaperPath	Same as the settings' wallpaper path.
+	 * @param count
+	 * @param full	Image served for every full wallpaper.
+	 * @param thumb	Image served for every thumbnail.
+	 * @throws JSONException
+	 */
+	public void addCatalog(String wallpaperPath, int count, byte[] full, byte[] thumb) throws JSONException
+	{
+		String basePath = "/" + wallpaperPath + "/";
+		String sha256 = DownloadIndex.toHex(DownloadIndex.newDigest().digest(full));
+		JSONArray manifest = new JSONArray();
+		
+		for(int i = 0; i < count; i++) {
+			String fullName = "full/wallpaper_" + i + ".jpg";
+			String thumbName = "thumb/wallpaper_" + i + ".jpg";
+			
+			JSONObject entry = new JSONObject();
+			entry.put(WallpaperParser.TITLE, "Wallpaper " + i);
+			entry.put(WallpaperParser.BYLINE, "Local Server");
+			entry.put(WallpaperParser.FULL_SRC, fullName);
+			entry.put(WallpaperParser.THUMB_SRC, thumbName);
+			entry.put(WallpaperParser.FILE_SIZE, full.length);
+			entry.put(WallpaperParser.SHA256, sha256);
+			manifest.put(entry);
+			
+			addFile(basePath + fullName, full, "image/jpeg");
+			addFile(basePath + thumbName, thumb, "image/jpeg");
+		}
+		
+		try {
+			addFile(basePath + PkWallpaperManager.DEFAULT_METADATA_FILE_NAME, manifest.toString().getBytes("UTF-8"), "application/json");
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Delays every response by the time passed.
+	 * 
+	 * @param latency	In milliseconds.
+	 */
+	public void setLatency(long latency)
+	{
+		this.mLatency = latency;
+	}
+	
+	/**
+	 * Limits how fast each connection sends its response body.
+	 * 
+	 * @param bandwidth	In bytes per second, 0 for no limit.
+	 */
+	public void setBandwidth(long bandwidth)
+	{
+		this.mBandwidth = bandwidth;
+	}
+	
+	/**
+	 * Answers this fraction of requests with 503 Service Unavailable.
+	 * 
+	 * @param failureRate	Between 0 and 1.
+	 */
+	public void setFailureRate(double failureRate)
+	{
+		this.mFailureRate = failureRate;
+	}
+	
+	/**
+	 * Closes the connection halfway through the body for this 
+	 * fraction of requests.
+	 * 
+	 * @param dropRate	Between 0 and 1.
+	 */
+	public void setDropRate(double dropRate)
+	{
+		this.mDropRate = dropRate;
+	}
+	
+	/** Number of connections accepted. */
+	public int getConnectionCount()
+	{
+		return mConnections.get();
+	}
+	
+	/** Number of requests received. */
+	public int getRequestCount()
+	{
+		return mRequests.get();
+	}
+	
+	/** Number of requests answered with a simulated failure. */
+	public int getFailureCount()
+	{
+		return mFailures.get();
+	}
+	
+	/** Number of responses cut off on purpose. */
+	public int getDropCount()
+	{
+		return mDrops.get();
+	}
+	
+	/** Number of body bytes sent. */
+	public long getBytesSent()
+	{
+		return mBytesSent.get();
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		
+		builder.append("Connections: " + getConnectionCount() + "\n");
+		builder.append("Requests: " + getRequestCount() + "\n");
+		builder.append("Failures: " + getFailureCount() + "\n");
+		builder.append("Drops: " + getDropCount() + "\n");
+		builder.append("Bytes Sent: " + getBytesSent() + "\n");
+		
+		return builder.toString();
+	}
+	
+	private void acceptConnections()
+	{
+		while(mRunning) {
+			try {
+				final Socket socket = mServerSocket.accept();
+				mConnections.incrementAndGet();
+				mExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						serveConnection(socket);
+					}
+				});
+			}
+			catch (IOException e) {
+				// Closed by stop()
+				if(mRunning)
+					e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Answers requests on the socket passed until either side closes it.
+	 */
+	private void serveConnection(Socket socket)
+	{
+		mSockets.add(socket);
+		try {
+			socket.setSoTimeout(SOCKET_TIMEOUT);
+			socket.setTcpNoDelay(true);
+			InputStream input = new BufferedInputStream(socket.getInputStream());
+			OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+			
+			while(mRunning && serveRequest(input, output));
+		}
+		catch (IOException e) {
+			// Idle timeout or client went away
+		}
+		finally {
+			mSockets.remove(socket);
+			closeQuietly(socket);
+		}
+	}
+	
+	private static void closeQuietly(Socket socket)
+	{
+		try {
+			socket.close();
+		}
+		catch (IOException e) {
+			// Already closed
+		}
+	}
+	
+	/**
+	 * Reads and answers a single request.
+	 * 
+	 * @return	Whether the connection should stay open.
+	 */
+	private boolean serveRequest(InputStream input, OutputStream output) throws IOException
+	{
+		String requestLine = readLine(input);
+		if(requestLine == null || requestLine.length() == 0)
+			return false;
+		
+		String[] parts = requestLine.split(" ");
+		if(parts.length < 3)
+			return false;
+		
+		String method = parts[0];
+		String path = parts[1];
+		int query = path.indexOf('?');
+		if(query >= 0)
+			path = path.substring(0, query);
+		
+		// Header names are case insensitive
+		Map<String, String> headers = new HashMap<String, String>();
+		String line;
+		while((line = readLine(input)) != null && line.length() > 0) {
+			int separator = line.indexOf(':');
+			if(separator > 0)
+				headers.put(line.substring(0, separator).trim().toLowerCase(Locale.US), line.substring(separator + 1).trim());
+		}
+		
+		mRequests.incrementAndGet();
+		boolean keepAlive = !"close".equalsIgnoreCase(headers.get("connection"));
+		boolean head = method.equals("HEAD");
+		
+		if(mLatency > 0) {
+			try {
+				Thread.sleep(mLatency);
+			}
+			catch (InterruptedException e) {
+				return false;
+			}
+		}
+		
+		if(!head && !method.equals("GET")) {
+			writeStatus(output, 405, "Method Not Allowed", keepAlive);
+			return keepAlive;
+		}
+		
+		Route route = mRoutes.get(path);
+		if(route == null) {
+			writeStatus(output, 404, "Not Found", keepAlive);
+			return keepAlive;
+		}
+		
+		if(mFailureRate > 0 && mRandom.nextDouble() < mFailureRate) {
+			mFailures.incrementAndGet();
+			writeStatus(output, 503, "Service Unavailable", keepAlive);
+			return keepAlive;
+		}
+		
+		if(route.eTag.equals(headers.get("if-none-match"))) {
+			writeHeaders(output, 304, "Not Modified", route, -1, null, keepAlive, null);
+			output.flush();
+			return keepAlive;
+		}
+		
+		// Ranges are ignored if the client's copy is out of date
+		String range = headers.get("range");
+		String ifRange = headers.get("if-range");
+		if(range != null && ifRange != null && !ifRange.equals(route.eTag) && !ifRange.equals(route.lastModified))
+			range = null;
+		
+		byte[] body = route.content;
+		int first = 0;
+		int last = body.length - 1;
+		int status = 200;
+		String reason = "OK";
+		String contentEncoding = null;
+		
+		if(range != null) {
+			long[] bounds = parseRange(range, body.length);
+			if(bounds == null) {
+				StringBuilder builder = new StringBuilder();
+				builder.append("HTTP/1.1 416 Requested Range Not Satisfiable" + CRLF);
+				builder.append("Content-Range: bytes */" + body.length + CRLF);
+				builder.append("Content-Length: 0" + CRLF);
+				builder.append("Connection: " + (keepAlive ? "keep-alive" : "close") + CRLF + CRLF);
+				output.write(builder.toString().getBytes(CHARSET));
+				output.flush();
+				return keepAlive;
+			}
+			
+			first = (int) bounds[0];
+			last = (int) bounds[1];
+			status = 206;
+			reason = "Partial Content";
+		}
+		else if(route.isCompressible() && acceptsGzip(headers.get("accept-encoding"))) {
+			body = route.getCompressed();
+			last = body.length - 1;
+			contentEncoding = HttpTransport.ENCODING_GZIP;
+		}
+		
+		int length = last - first + 1;
+		writeHeaders(output, status, reason, route, length, status == 206 ? "bytes " + first + "-" + last + "/" + route.content.length : null, keepAlive, contentEncoding);
+		if(head) {
+			output.flush();
+			return keepAlive;
+		}
+		
+		// Cut the body off halfway and drop the connection
+		if(mDropRate > 0 && mRandom.nextDouble() < mDropRate) {
+			mDrops.incrementAndGet();
+			writeBody(output, body, first, length / 2);
+			output.flush();
+			return false;
+		}
+		
+		writeBody(output, body, first, length);
+		output.flush();
+		return keepAlive;
+	}
+	
+	private void writeStatus(OutputStream output, int status, String reason, boolean keepAlive) throws IOException
+	{
+		StringBuilder builder = new StringBuilder();
+		builder.append("HTTP/1.1 " + status + " " + reason + CRLF);
+		builder.append("Content-Length: 0" + CRLF);
+		builder.append("Connection: " + (keepAlive ? "keep-alive" : "close") + CRLF + CRLF);
+		
+		output.write(builder.toString().getBytes(CHARSET));
+		output.flush();
+	}
+	
+	private void writeHeaders(OutputStream output, int status, String reason, Route route, int length, String contentRange, boolean keepAlive, String contentEncoding) throws IOException
+	{
+		StringBuilder builder = new StringBuilder();
+		builder.append("HTTP/1.1 " + status + " " + reason + CRLF);
+		builder.append("ETag: " + route.eTag + CRLF);
+		builder.append("Last-Modified: " + route.lastModified + CRLF);
+		builder.append("Accept-Ranges: bytes" + CRLF);
+		if(length >= 0) {
+			builder.append("Content-Type: " + route.contentType + CRLF);
+			builder.append("Content-Length: " + length + CRLF);
+		}
+		if(contentRange != null)
+			builder.append("Content-Range: " + contentRange + CRLF);
+		if(contentEncoding != null)
+			builder.append("Content-Encoding: " + contentEncoding + CRLF);
+		builder.append("Connection: " + (keepAlive ? "keep-alive" : "close") + CRLF + CRLF);
+		
+		output.write(builder.toString().getBytes(CHARSET));
+	}
+	
+	/**
+	 * Writes the body, pacing it to the bandwidth limit if one is set.
+	 */
+	private void writeBody(OutputStream output, byte[] body, int offset, int length) throws IOException
+	{
+		long bandwidth = mBandwidth;
+		if(bandwidth <= 0) {
+			output.write(body, offset, length);
+			mBytesSent.addAndGet(length);
+			return;
+		}
+		
+		// Send in slices of roughly a tenth of a second each
+		int slice = (int) Math.max(1, Math.min(8192, bandwidth / 10));
+		long start = System.currentTimeMillis();
+		int sent = 0;
+		
+		while(sent < length) {
+			int count = Math.min(slice, length - sent);
+			output.write(body, offset + sent, count);
+			output.flush();
+			sent += count;
+			mBytesSent.addAndGet(count);
+			
+			long wait = (sent * 1000L / bandwidth) - (System.currentTimeMillis() - start);
+			if(wait > 0) {
+				try {
+					Thread.sleep(wait);
+				}
+				catch (InterruptedException e) {
+					throw new IOException("Interrupted while sending");
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Parses a single "bytes=first-last" range.
+	 * 
+	 * @return	Inclusive bounds or null if it can't be satisfied.
+	 */
+	private static long[] parseRange(String range, long length)
+	{
+		if(!range.startsWith("bytes=") || range.indexOf(',') >= 0)
+			return null;
+		
+		String spec = range.substring("bytes=".length()).trim();
+		int dash = spec.indexOf('-');
+		if(dash < 0)
+			return null;
+		
+		try {
+			long first;
+			long last;
+			
+			if(dash == 0) {
+				// Suffix range: the last n bytes
+				long suffix = Long.parseLong(spec.substring(1));
+				first = Math.max(0, length - suffix);
+				last = length - 1;
+			}
+			else {
+				first = Long.parseLong(spec.substring(0, dash));
+				last = dash == spec.length() - 1 ? length - 1 : Math.min(length - 1, Long.parseLong(spec.substring(dash + 1)));
+			}
+			
+			if(first >= length || first > last)
+				return null;
+			
+			return new long[] {first, last};
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
+	}
+	
+	private static boolean acceptsGzip(String acceptEncoding)
+	{
+		return acceptEncoding != null && acceptEncoding.toLowerCase(Locale.US).indexOf(HttpTransport.ENCODING_GZIP) >= 0;
+	}
+	
+	/**
+	 * Reads a CRLF terminated line, or null at the end of the stream.
+	 */
+	private static String readLine(InputStream input) throws IOException
+	{
+		ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+		int b;
+		
+		while((b = input.read()) != -1) {
+			if(b == '\n')
+				return line.toString(CHARSET);
+			if(b != '\r')
+				line.write(b);
+		}
+		
+		return line.size() == 0 ? null : line.toString(CHARSET);
+	}
+	
+	private static String formatDate(Date date)
+	{
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format.format(date);
+	}
+	
+	/**
+	 * Content served at a single path.
+	 */
+	private static class Route
+	{
+		final byte[] content;
+		final String contentType;
+		final String eTag;
+		final String lastModified;
+		private byte[] mCompressed;
+		
+		Route(byte[] content, String contentType)
+		{
+			this.content = content;
+			this.contentType = contentType;
+			this.eTag = "\"" + Integer.toHexString(Arrays.hashCode(content)) + "-" + content.length + "\"";
+			this.lastModified = formatDate(new Date());
+			this.mCompressed = null;
+		}
+		
+		boolean isCompressible()
+		{
+			return !contentType.startsWith("image/");
+		}
+		
+		synchronized byte[] getCompressed() throws IOException
+		{
+			if(mCompressed == null) {
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream(content.length / 4 + 64);
+				GZIPOutputStream gzip = new GZIPOutputStream(buffer);
+				gzip.write(content);
+				gzip.close();
+				mCompressed = buffer.toByteArray();
+			}
+			
+			return mCompressed;
+		}
+	}
+}
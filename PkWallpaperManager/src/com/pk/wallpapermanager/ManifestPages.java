@@ -0,0 +1,158 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.pk.wallpapermanager;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Manifest pages that haven't been loaded yet.
+ * <p>
+ * Every time the first page is loaded again the queue starts over 
+ * with a new generation. Pages taken from an older generation are 
+ * stale and their wallpapers must be dropped.
+ */
+class ManifestPages
+{
+	private final LinkedList<String> mPending;
+	
+	// Every page queued or loaded in this generation, pending or not
+	private final Set<String> mSeen;
+	private int mGeneration;
+	
+	public ManifestPages()
+	{
+		this.mPending = new LinkedList<String>();
+		this.mSeen = new HashSet<String>();
+		this.mGeneration = 0;
+	}
+	
+	/**
+	 * Forgets every pending page and starts a new generation.
+	 * 
+	 * @return	The new generation.
+	 */
+	public synchronized int reset()
+	{
+		mPending.clear();
+		mSeen.clear();
+		return ++mGeneration;
+	}
+	
+	/**
+	 * Queues the pages passed, resolved against the URL of the page 
+	 * that pointed to them, unless the generation is stale.
+	 * 
+	 * @param generation
+	 * @param baseURL
+	 * @param pages
+	 * @throws MalformedURLException
+	 */
+	public synchronized void add(int generation, String baseURL, List<String> pages) throws MalformedURLException
+	{
+		if(generation != mGeneration)
+			return;
+		
+		URL base = new URL(baseURL);
+		mSeen.add(base.toString());
+		
+		for(String page : pages) {
+			String url = new URL(base, page).toString();
+			
+			// Don't let a page pointing back at an earlier one loop forever or load twice
+			if(mSeen.add(url))
+				mPending.add(url);
+		}
+	}
+	
+	/**
+	 * Takes the next pending page.
+	 * 
+	 * @return	Null if there are no more pages.
+	 */
+	public synchronized Page take()
+	{
+		String url = mPending.poll();
+		return url == null ? null : new Page(url, mGeneration);
+	}
+	
+	/**
+	 * Takes every pending page, in order.
+	 * 
+	 * @return
+	 */
+	public synchronized List<Page> takeAll()
+	{
+		List<Page> pages = new ArrayList<Page>(mPending.size());
+		for(String url : mPending) {
+			pages.add(new Page(url, mGeneration));
+		}
+		mPending.clear();
+		
+		return pages;
+	}
+	
+	/**
+	 * Puts a page that failed to load back at the front of the 
+	 * queue, unless its generation is stale.
+	 * 
+	 * @param page
+	 */
+	public synchronized void retry(Page page)
+	{
+		if(page.generation == mGeneration && !mPending.contains(page.url))
+			mPending.addFirst(page.url);
+	}
+	
+	public synchronized boolean isCurrent(int generation)
+	{
+		return generation == mGeneration;
+	}
+	
+	public synchronized boolean hasMore()
+	{
+		return !mPending.isEmpty();
+	}
+	
+	/**
+	 * A page to load and the generation it belongs to.
+	 */
+	public static class Page
+	{
+		public final String url;
+		public final int generation;
+		
+		Page(String url, int generation)
+		{
+			this.url = url;
+			this.generation = generation;
+		}
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.pk.wallpapermanager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Keeps the last metadata response on disk along with its validators 
+ * so the next request can be made conditional.
+ */
+class MetadataCache
+{
+	// HTTP headers used for conditional requests
+	public static final String HEADER_ETAG = "ETag";
+	public static final String HEADER_LAST_MODIFIED = "Last-Modified";
+	public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+	public static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+	
+	// Storage keys
+	private static final String PREFS_NAME = "PkWallpaperManager";
+	private static final String KEY_URL = "metadata_url";
+	private static final String KEY_ETAG = "metadata_etag";
+	private static final String KEY_LAST_MODIFIED = "metadata_last_modified";
+	private static final String CACHE_FILE_NAME = "wallpapers.json";
+	private static final String TEMP_FILE_PREFIX = "wallpapers";
+	private static final String TEMP_FILE_SUFFIX = ".json.tmp";
+	
+	private final SharedPreferences mPrefs;
+	private final File mDirectory;
+	private final File mFile;
+	
+	public MetadataCache(Context context)
+	{
+		this.mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+		this.mDirectory = context.getCacheDir();
+		this.mFile = new File(mDirectory, CACHE_FILE_NAME);
+	}
+	
+	/**
+	 * Adds If-None-Match/If-Modified-Since headers to the request 
+	 * if there is a cached copy of the same URL on disk.
+	 * 
+	 * @param headers
+	 * @param url
+	 */
+	public synchronized void addValidators(Map<String, String> headers, String url)
+	{
+		if(!mFile.exists() || !url.equals(mPrefs.getString(KEY_URL, null)))
+			return;
+		
+		String eTag = mPrefs.getString(KEY_ETAG, null);
+		String lastModified = mPrefs.getString(KEY_LAST_MODIFIED, null);
+		
+		if(eTag != null)
+			headers.put(HEADER_IF_NONE_MATCH, eTag);
+		if(lastModified != null)
+			headers.put(HEADER_IF_MODIFIED_SINCE, lastModified);
+	}
+	
+	/**
+	 * Opens the cached copy of the last response.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized InputStream open() throws IOException
+	{
+		return new FileInputStream(mFile);
+	}
+	
+	/**
+	 * Wraps the response stream so every byte read is also 
+	 * written to a temporary file of its own, so fetches running 
+	 * at the same time never write to the same file. Call 
+	 * {@link #commit} once the stream has been read successfully 
+	 * or {@link #abort} otherwise.
+	 * 
+	 * @param input
+	 * @return
+	 * @throws IOException
+	 */
+	public Recording record(InputStream input) throws IOException
+	{
+		File file = File.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX, mDirectory);
+		
+		try {
+			return new Recording(input, file);
+		}
+		catch (IOException e) {
+			file.delete();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Replaces the cached copy with the recorded response and 
+	 * stores its validators.
+	 * 
+	 * @param url
+	 * @param response
+	 * @param recording
+	 */
+	public synchronized void commit(String url, WallpaperTransport.Response response, Recording recording)
+	{
+		if(!recording.mFile.renameTo(mFile)) {
+			abort(recording);
+			return;
+		}
+		
+		SharedPreferences.Editor editor = mPrefs.edit();
+		editor.putString(KEY_URL, url);
+		putHeader(editor, KEY_ETAG, response, HEADER_ETAG);
+		putHeader(editor, KEY_LAST_MODIFIED, response, HEADER_LAST_MODIFIED);
+		editor.commit();
+	}
+	
+	/**
+	 * Throws away a partially recorded response.
+	 * 
+	 * @param recording
+	 */
+	public void abort(Recording recording)
+	{
+		try {
+			recording.mOutput.close();
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+		recording.mFile.delete();
+	}
+	
+	/**
+	 * Deletes the cached copy and its validators, along with 
+	 * recordings left behind by fetches that never finished.
+	 */
+	public synchronized void clear()
+	{
+		mFile.delete();
+		
+		File[] files = mDirectory.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				if(file.getName().startsWith(TEMP_FILE_PREFIX) && file.getName().endsWith(TEMP_FILE_SUFFIX))
+					file.delete();
+			}
+		}
+		
+		mPrefs.edit().remove(KEY_URL).remove(KEY_ETAG).remove(KEY_LAST_MODIFIED).commit();
+	}
+	
+	private static void putHeader(SharedPreferences.Editor editor, String key, WallpaperTransport.Response response, String header)
+	{
+		String value = response.getHeader(header);
+		if(value != null)
+			editor.putString(key, value);
+		else
+			editor.remove(key);
+	}
+	
+	/** Copies everything read from the source into its own temporary file. */
+	public static class Recording extends FilterInputStream
+	{
+		private final File mFile;
+		private final OutputStream mOutput;
+		
+		private Recording(InputStream input, File file) throws IOException
+		{
+			super(input);
+			this.mFile = file;
+			this.mOutput = new FileOutputStream(file);
+		}
+		
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+			if(b != -1)
+				mOutput.write(b);
+			
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int count) throws IOException
+		{
+			int read = super.read(buffer, offset, count);
+			if(read > 0)
+				mOutput.write(buffer, offset, read);
+			
+			return read;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException
+		{
+			// Skipped bytes still have to end up in the cache
+			byte[] buffer = new byte[(int) Math.min(n, 2048)];
+			return read(buffer, 0, buffer.length);
+		}
+		
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+		
+		@Override
+		public void close() throws IOException
+		{
+			try {
+				// Keep whatever the consumer did not read
+				byte[] buffer = new byte[2048];
+				while(read(buffer, 0, buffer.length) != -1);
+			}
+			finally {
+				super.close();
+				mOutput.close();
+			}
+		}
+	}
+}
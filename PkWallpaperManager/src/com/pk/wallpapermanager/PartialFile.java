@@ -0,0 +1,204 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.pk.wallpapermanager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * A download in progress. Bytes are written to a <code>.part</code> file 
+ * next to the target, with a sidecar file recording the validator of the 
+ * response they came from so an interrupted download can be resumed.
+ */
+class PartialFile
+{
+	public static final String PART_SUFFIX = ".part";
+	public static final String META_SUFFIX = ".meta";
+	
+	// Sidecar keys
+	private static final String KEY_ETAG = "etag";
+	private static final String KEY_LAST_MODIFIED = "last_modified";
+	private static final String KEY_LENGTH = "length";
+	private static final String KEY_SEGMENTED = "segmented";
+	
+	private final File mTarget;
+	private final File mPart;
+	private final File mMeta;
+	private final Properties mProperties;
+	
+	public PartialFile(File target)
+	{
+		this.mTarget = target;
+		this.mPart = new File(target.getPath() + PART_SUFFIX);
+		this.mMeta = new File(target.getPath() + PART_SUFFIX + META_SUFFIX);
+		this.mProperties = new Properties();
+		this.load();
+	}
+	
+	/**
+	 * Returns the validator to resume with, preferring the ETag. 
+	 * Returns null if the partial bytes can't be safely resumed.
+	 * 
+	 * @return
+	 */
+	public String getValidator()
+	{
+		String eTag = mProperties.getProperty(KEY_ETAG);
+		return eTag != null ? eTag : mProperties.getProperty(KEY_LAST_MODIFIED);
+	}
+	
+	/**
+	 * Number of bytes already downloaded, 0 if there's nothing 
+	 * to resume from.
+	 * 
+	 * @return
+	 */
+	public long getResumeOffset()
+	{
+		// Segmented downloads are written out of order, their length means nothing
+		if(isSegmented())
+			return 0;
+		
+		return getValidator() != null && mPart.isFile() ? mPart.length() : 0;
+	}
+	
+	/**
+	 * Whether the partial bytes were written by a segmented download.
+	 * 
+	 * @return
+	 */
+	public boolean isSegmented()
+	{
+		return Boolean.parseBoolean(mProperties.getProperty(KEY_SEGMENTED));
+	}
+	
+	/**
+	 * Total length of the file, as reported by the server, or -1 if unknown.
+	 * 
+	 * @return
+	 */
+	public long getLength()
+	{
+		try {
+			return Long.parseLong(mProperties.getProperty(KEY_LENGTH, "-1"));
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+	
+	public File getPartFile()
+	{
+		return this.mPart;
+	}
+	
+	public File getTarget()
+	{
+		return this.mTarget;
+	}
+	
+	/**
+	 * Records the validators of the response currently being written.
+	 * 
+	 * @param eTag
+	 * @param lastModified
+	 * @param length
+	 * @param segmented
+	 * @throws IOException
+	 */
+	public void begin(String eTag, String lastModified, long length, boolean segmented) throws IOException
+	{
+		mProperties.clear();
+		if(eTag != null)
+			mProperties.setProperty(KEY_ETAG, eTag);
+		if(lastModified != null)
+			mProperties.setProperty(KEY_LAST_MODIFIED, lastModified);
+		if(length > 0)
+			mProperties.setProperty(KEY_LENGTH, String.valueOf(length));
+		if(segmented)
+			mProperties.setProperty(KEY_SEGMENTED, String.valueOf(segmented));
+		
+		mTarget.getParentFile().mkdirs();
+		OutputStream output = new FileOutputStream(mMeta);
+		try {
+			mProperties.store(output, null);
+		}
+		finally {
+			output.close();
+		}
+	}
+	
+	/**
+	 * Moves the finished download into place.
+	 * 
+	 * @throws IOException
+	 */
+	public void complete() throws IOException
+	{
+		// renameTo won't replace an existing file everywhere
+		if(mTarget.exists())
+			mTarget.delete();
+		
+		if(!mPart.renameTo(mTarget))
+			throw new IOException("Unable to move " + mPart + " to " + mTarget);
+		
+		mMeta.delete();
+		mProperties.clear();
+	}
+	
+	/**
+	 * Throws away any partial bytes.
+	 */
+	public void discard()
+	{
+		mPart.delete();
+		mMeta.delete();
+		mProperties.clear();
+	}
+	
+	private void load()
+	{
+		if(!mMeta.isFile())
+			return;
+		
+		try {
+			InputStream input = new FileInputStream(mMeta);
+			try {
+				mProperties.load(input);
+			}
+			finally {
+				input.close();
+			}
+		}
+		catch (IOException e) {
+			// Without a validator the partial bytes can't be trusted
+			discard();
+		}
+	}
+}
@@ -24,73 +24,60 @@
 
 package com.pk.wallpapermanager;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.URL;
-import java.net.URLConnection;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
-import org.apache.http.HttpVersion;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.conn.ClientConnectionManager;
-import org.apache.http.conn.scheme.PlainSocketFactory;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.impl.client.BasicResponseHandler;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
-import org.apache.http.params.HttpProtocolParams;
-import org.apache.http.protocol.HTTP;
-import org.json.JSONArray;
+import org.apache.http.client.HttpResponseException;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import android.app.NotificationManager;
 import android.app.WallpaperManager;
 import android.content.Context;
-import android.content.res.Resources;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.v4.app.NotificationCompat.Builder;
 import android.util.Log;
 
 public class PkWallpaperManager extends Static
 {
-	//	TODO
-	// 	- Cache wallpaper list in SharedPreferences in the onStop of MainActivity and WallpaperActivity
-	//	- Search and restore wallpaper list stored locally
-	//	- Add timer interval to fetch wallpapers only when needed
-	//	- Create parameter to override timer interval
-	
 	// General Public Constants
 	public static final String DEFAULT_METADATA_FILE_NAME = "wallpapers.json";
 	public static final String RESOURCE_URI_BASE = "android.resource://";
 	public static final int MAX_PROGRESS = 100;
-	
-	// JSON Constants
-	private final String FULL_SRC = "full_src";
-	private final String THUMB_SRC = "thumb_src";
-	private final String TITLE = "title";
-	private final String BYLINE = "byline";
-	private final String FILE_SIZE = "file_size";
+	public static final String THUMBNAIL_CACHE_DIR = "thumbnails";
 	
 	// Keep a single instance throughout the app for simplicity
 	private static PkWallpaperManager mInstance = null;
 	
-	// Lists of wallpapers
-	private List<Wallpaper> mLocalWallpapers;
-	private List<Wallpaper> mCloudWallpapers;
+	// Current wallpapers, replaced as a whole on every refresh
+	private final AtomicReference<WallpaperCatalog> mCatalog;
 	
 	// For issue tracking purposes
 	private boolean debugEnabled;
@@ -104,16 +91,56 @@ public class PkWallpaperManager extends Static
 	
 	// Background threads
 	private AsyncTask<Void, Void, Void> localWallpapersTask;
-	private AsyncTask<Void, Void, Void> cloudWallpapersTask;
 	
-	// Listeners for various loading events
+	// Cloud fetch in flight, joined by anyone who asks for another one meanwhile
+	private final AtomicReference<WallpaperFuture<WallpaperCatalog>> mCloudFetch;
+	
+	// Tells batch downloads apart on the download scheduler
+	private final AtomicLong mBatchSequence;
+	
+	// Listeners for various loading events, safe to change while being notified
 	private List<LocalWallpaperListener> mLocalWallpaperListeners;
 	private List<CloudWallpaperListener> mCloudWallpaperListeners;
 	private List<WallpaperSetListener> mWallpaperSetListeners;
 	private List<WallpaperDownloadListener> mWallpaperDownloadListeners;
+	private List<BatchDownloadListener> mBatchDownloadListeners;
+	
+	// Our handy client for metadata, thumbnails and downloads, created on first use
+	private WallpaperTransport mTransport;
+	
+	// Last metadata response kept on disk for conditional requests
+	private MetadataCache mMetadataCache;
+	
+	// Decides when cloud wallpapers are due for a refresh
+	private final RefreshScheduler mRefreshScheduler;
+	private final Handler mRefreshHandler;
+	private final Runnable mAutoRefreshTask;
+	private volatile boolean mAutoRefresh;
+	
+	// Manifest pages not loaded yet
+	private final ManifestPages mManifestPages;
 	
-	// Our handy client for getting API JSON data
-	private HttpClient httpClient;
+	// Drawable IDs of local wallpapers kept on disk per app version
+	private final ResourceIndex mResourceIndex;
+	
+	// Downloaded wallpapers by the hash of their content
+	private final DownloadIndex mDownloadIndex;
+	
+	// Last loaded catalog kept on disk for instant startup
+	private CatalogSnapshot mCatalogSnapshot;
+	private final AtomicBoolean mSnapshotRestored;
+	
+	// Decoded and downloaded thumbnails, created on first use
+	private volatile ThumbnailCache mThumbnailCache;
+	
+	// Loads thumbnails ahead of the scroll position, created on first use
+	private ThumbnailPrefetcher mThumbnailPrefetcher;
+	
+	// Queue for asynchronous downloads, created on first use
+	private DownloadScheduler mDownloadScheduler;
+	
+	// Where listeners and throttled download progress are notified
+	private volatile Executor mCallbackExecutor;
 	
 	/**
 	 * Creates a global WallpaperManager instance.
@@ -163,15 +190,34 @@ public class PkWallpaperManager extends Static
 		this.debugEnabled = false;
 		this.mSettings = new WallpaperSettings();
 		this.mContext = context;
-		this.mLocalWallpapers = new ArrayList<Wallpaper>();
-		this.mCloudWallpapers = new ArrayList<Wallpaper>();
-		this.mLocalWallpaperListeners = new ArrayList<LocalWallpaperListener>();
-		this.mCloudWallpaperListeners = new ArrayList<CloudWallpaperListener>();
-		this.mWallpaperSetListeners = new ArrayList<WallpaperSetListener>();
-		this.mWallpaperDownloadListeners = new ArrayList<WallpaperDownloadListener>();
-		this.initHttpClient();
+		this.mCatalog = new AtomicReference<WallpaperCatalog>(WallpaperCatalog.EMPTY);
+		this.mLocalWallpaperListeners = new CopyOnWriteArrayList<LocalWallpaperListener>();
+		this.mCloudWallpaperListeners = new CopyOnWriteArrayList<CloudWallpaperListener>();
+		this.mWallpaperSetListeners = new CopyOnWriteArrayList<WallpaperSetListener>();
+		this.mWallpaperDownloadListeners = new CopyOnWriteArrayList<WallpaperDownloadListener>();
+		this.mBatchDownloadListeners = new CopyOnWriteArrayList<BatchDownloadListener>();
+		this.mMetadataCache = new MetadataCache(context);
+		this.mCatalogSnapshot = new CatalogSnapshot(context);
+		this.mManifestPages = new ManifestPages();
+		this.mResourceIndex = new ResourceIndex(context);
+		this.mDownloadIndex = new DownloadIndex(context);
+		this.mRefreshScheduler = new RefreshScheduler(mSettings);
+		this.mRefreshHandler = new Handler(Looper.getMainLooper());
+		this.mAutoRefreshTask = new Runnable() {
+			@Override
+			public void run() {
+				if(mRefreshScheduler.shouldRefresh(SystemClock.elapsedRealtime(), false))
+					fetchCloudWallpapersAsync(AsyncTask.THREAD_POOL_EXECUTOR, false);
+				else
+					scheduleAutoRefresh();
+			}
+		};
+		this.mAutoRefresh = false;
+		this.mCallbackExecutor = new MainThreadExecutor();
 		this.initLocalWallpapersTask();
-		this.initCloudWallpapersTask();
+		this.mCloudFetch = new AtomicReference<WallpaperFuture<WallpaperCatalog>>();
+		this.mBatchSequence = new AtomicLong();
+		this.mSnapshotRestored = new AtomicBoolean();
 	}
 	
 	/**
@@ -188,22 +234,48 @@ public class PkWallpaperManager extends Static
 		if(debugEnabled)
 			Log.d(LOG_TAG, "Loading local wallpapers...");
 		
-		// Basic resources
-		Resources resources = mContext.getResources();
-		mLocalWallpapers.clear();
+		// Show what we had last time while these load
+		restoreSnapshot();
+		
+		List<Wallpaper> wallpapers = new ArrayList<Wallpaper>(localWallpapers.length);
 		Wallpaper mWall = null;
 		
 		// Loop through all listeners notifying them
-        for(LocalWallpaperListener mListener : mLocalWallpaperListeners) {
-        	mListener.onLocalWallpapersLoading();
-        }
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for(LocalWallpaperListener mListener : mLocalWallpaperListeners) {
+					mListener.onLocalWallpapersLoading();
+				}
+			}
+		});
+		
+		// Resolved once per app version, then read back from disk
+		int[] resources = mResourceIndex.resolve(packageName, localWallpapers, thumbSuffix);
+		if(resources == null) {
+			// Interrupted halfway, keep whatever was loaded before
+			if(debugEnabled)
+				Log.d(LOG_TAG, "Loading local wallpapers was interrupted!");
+			
+			// Loop through all listeners notifying them
+			dispatch(new Runnable() {
+				@Override
+				public void run() {
+					for(LocalWallpaperListener mListener : mLocalWallpaperListeners) {
+						mListener.onLocalWallpapersLoaded();
+					}
+				}
+			});
+			return;
+		}
 		
 		// Loop through extras looking for local wallpapers.
-        for (String localWallpaper : localWallpapers) {
-            int res = resources.getIdentifier(localWallpaper, "drawable", packageName);
+        for (int i = 0; i < localWallpapers.length; i++) {
+        	String localWallpaper = localWallpapers[i];
+            int res = resources[i * 2];
             
             if (res != 0) {
-                final int thumbRes = resources.getIdentifier(localWallpaper + thumbSuffix, "drawable", packageName);
+                final int thumbRes = resources[i * 2 + 1];
             	mWall = new Wallpaper();
 
             	mWall.setFullResource(res);
@@ -212,18 +284,31 @@ public class PkWallpaperManager extends Static
             	mWall.setThumbUri(Uri.parse(RESOURCE_URI_BASE + packageName  + "/drawable/" + localWallpaper + thumbSuffix));
             	mWall.setLocal(true);
             	
-            	mLocalWallpapers.add(mWall);
+            	wallpapers.add(mWall);
                 mWall = null;
             }
         }
         
+        // Swap in the freshly loaded list
+        WallpaperCatalog catalog = publishLocalWallpapers(wallpapers);
+        
+        // Build the index here rather than on the first search
+        catalog.getIndex();
+        
         if(debugEnabled)
-        	Log.d(LOG_TAG, "Finished loading " + mLocalWallpapers.size() + " local wallpapers!");
+        	Log.d(LOG_TAG, "Finished loading " + catalog.getLocalWallpapers().size() + " local wallpapers!");
+        
+        saveSnapshot();
         
         // Loop through all listeners notifying them
-        for(LocalWallpaperListener mListener : mLocalWallpaperListeners) {
-        	mListener.onLocalWallpapersLoaded();
-        }
+        dispatch(new Runnable() {
+        	@Override
+        	public void run() {
+        		for(LocalWallpaperListener mListener : mLocalWallpaperListeners) {
+        			mListener.onLocalWallpapersLoaded();
+        		}
+        	}
+        });
 	}
 	
 	/**
@@ -274,6 +359,10 @@ public class PkWallpaperManager extends Static
 	/**
 	 * Loads wallpapers stored on your cloud repository.
 	 * May throw an exception so watch out and handle it carefully.
+	 * <p>
+	 * If caching is enabled in settings, the last response is kept on 
+	 * disk and the request is made conditional. An unchanged manifest 
+	 * is then rebuilt from the cached copy instead of downloaded again.
 	 * 
 	 * Note: Do NOT call this from the main UI thread of it will force close!
 	 * 		 Call this from a separate thread instead.
@@ -292,70 +381,133 @@ public class PkWallpaperManager extends Static
 			return;
 		}
 		
+		// Show what we had last time while these load
+		restoreSnapshot();
+		
 		// Retrieve Metadata URL or build default (if null)
 		String metadataURL = mSettings.getMetadataURL();
 		if(metadataURL == null) {
 			metadataURL = mSettings.getStorageURL() + "/" + mSettings.getWallpaperPath() + "/" + DEFAULT_METADATA_FILE_NAME;
 		}
 		
-		// Make a request to the Metadata URL and wait for the JSON response
-		HttpGet get = new HttpGet(metadataURL);
+		// Make a request to the Metadata URL and stream the JSON response
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put(HttpTransport.HEADER_ACCEPT_ENCODING, HttpTransport.ENCODING_GZIP);
+		final boolean cacheEnabled = mSettings.getCacheEnabled();
+		
+		// Only ask for the manifest if it changed since our cached copy
+		if(cacheEnabled)
+			mMetadataCache.addValidators(headers, metadataURL);
 		
         if(debugEnabled)
         	Log.d(LOG_TAG, "Sending wallpaper info data request to " + metadataURL + "...");
         
-        String response = "";
+        notifyCloudWallpapersLoading();
+        
+        // Parse wallpapers directly off the response stream, only the first page for paged manifests
+        List<Wallpaper> wallpapers = new ArrayList<Wallpaper>();
+        List<String> pages = new ArrayList<String>();
+        WallpaperTransport.Response response = null;
+        MetadataCache.Recording recording = null;
+        Runnable abort = null;
+        boolean finished = false;
         try {
-        	response = httpClient.execute(get, new BasicResponseHandler());
+        	response = getTransport().get(metadataURL, headers);
+        	abort = Cancellation.register(response);
+        	int status = response.getStatusCode();
+        	
+        	WallpaperParser parser = new WallpaperParser(getWallpaperPathURL());
+        	
+        	if(status == HttpStatus.SC_NOT_MODIFIED && cacheEnabled) {
+        		// Nothing changed, rebuild from our cached copy
+        		if(debugEnabled)
+        			Log.d(LOG_TAG, "Metadata not modified. Loading cached copy...");
+        		
+        		parser.parse(mMetadataCache.open(), wallpapers, pages);
+        	}
+        	else if(status >= 300) {
+        		throw new HttpResponseException(status, response.getReasonPhrase());
+        	}
+        	else if(cacheEnabled) {
+        		// Keep a copy of the response on disk as we parse it
+        		recording = mMetadataCache.record(response.getContent());
+        		parser.parse(recording, wallpapers, pages);
+        		mMetadataCache.commit(metadataURL, response, recording);
+        	}
+        	else {
+        		parser.parse(response.getContent(), wallpapers, pages);
+        	}
         	
-            if(debugEnabled)
-            	Log.d(LOG_TAG, "Response: " + response);
+        	response.close();
+        	finished = true;
         }
-        catch (Exception e) {
-        	if(debugEnabled) {
-        		Log.d(LOG_TAG, "Unable to make a request to metadata URL! Are you sure you specified your metadata URL in settings correctly?");
+        catch (IOException e) {
+        	// Being cancelled says nothing about the server, don't back off for it
+        	if(Cancellation.isCancelled()) {
+        		if(debugEnabled)
+        			Log.d(LOG_TAG, "Loading wallpapers from metadata URL was cancelled.");
+        		
+        		notifyCloudWallpapersLoadFailed();
+        		throw new InterruptedIOException("Cancelled loading " + metadataURL);
         	}
+        	
+        	if(debugEnabled)
+        		Log.d(LOG_TAG, "Unable to load wallpapers from metadata URL! Are you sure you specified your metadata URL in settings correctly?");
+        	
+        	mRefreshScheduler.onFailure(SystemClock.elapsedRealtime());
+        	scheduleAutoRefresh();
+        	notifyCloudWallpapersLoadFailed();
+            
+        	throw e;
         }
-        
-        // Loop through all listeners notifying them
-        for(CloudWallpaperListener mListener : mCloudWallpaperListeners) {
-        	mListener.onCloudWallpapersLoading();
+        finally {
+        	Cancellation.unregister(abort);
+        	
+        	// Whatever went wrong, don't leave the connection or recording behind
+        	if(!finished) {
+        		if(response != null)
+        			response.abort();
+        		if(recording != null)
+        			mMetadataCache.abort(recording);
+        	}
         }
         
-        // Convert response into JSONArray and loop through it
-        JSONArray jsonResponse = new JSONArray(response);
-        int responseLength = jsonResponse.length();
-        mCloudWallpapers.clear();
-        Wallpaper mWall = null;
+        mRefreshScheduler.onSuccess(SystemClock.elapsedRealtime());
+        scheduleAutoRefresh();
         
-        for(int index = 0; index < responseLength; index++) {
-        	JSONObject jsonWallpaper = jsonResponse.getJSONObject(index);
-        	
-        	mWall = new Wallpaper();
-        	mWall.setPathURL(mSettings.getStorageURL() + "/" + mSettings.getWallpaperPath() + "/");
-        	mWall.setRelativeFullURL(jsonWallpaper.getString(FULL_SRC));
-        	mWall.setRelativeThumbURL(jsonWallpaper.getString(THUMB_SRC));
-        	mWall.setFullUri(Uri.parse(mWall.getFullURL()));
-        	mWall.setThumbUri(Uri.parse(mWall.getThumbURL()));
-        	mWall.setTitle(jsonWallpaper.getString(TITLE));
-        	mWall.setByLine(jsonWallpaper.getString(BYLINE));
-        	mWall.setFileSize(jsonWallpaper.getLong(FILE_SIZE));
-        	mWall.setLocal(false);
-        	mCloudWallpapers.add(mWall);
-        	
-        	if(debugEnabled)
+        if(debugEnabled) {
+        	for(Wallpaper mWall : wallpapers) {
         		Log.d(LOG_TAG, mWall.toString());
+        	}
+        }
+        
+        // Swap in the freshly parsed list and start over on the pages together, 
+        // so no page is ever appended to the catalog of another manifest
+        WallpaperCatalog catalog;
+        synchronized(mManifestPages) {
+        	catalog = publishCloudWallpapers(wallpapers);
         	
-        	mWall = null;
+        	// Any other pages are loaded on demand
+        	try {
+        		mManifestPages.add(mManifestPages.reset(), metadataURL, pages);
+        	}
+        	catch (MalformedURLException e) {
+        		if(debugEnabled)
+        			Log.d(LOG_TAG, "Unable to resolve the other manifest pages, only the first one is available.");
+        		
+        		e.printStackTrace();
+        	}
         }
         
+        // Build the index here rather than on the first search
+        catalog.getIndex();
+        
         if(debugEnabled)
-        	Log.d(LOG_TAG, "Finished loading " + mCloudWallpapers.size() + " cloud wallpapers!");
+        	Log.d(LOG_TAG, "Finished loading " + catalog.getCloudWallpapers().size() + " cloud wallpapers!" + (mManifestPages.hasMore() ? " More pages available." : ""));
         
-        // Loop through all listeners notifying them
-        for(CloudWallpaperListener mListener : mCloudWallpaperListeners) {
-        	mListener.onCloudWallpapersLoaded();
-        }
+        saveSnapshot();
+        
+        notifyCloudWallpapersLoaded();
 	}
 	
 	/**
@@ -363,43 +515,318 @@ public class PkWallpaperManager extends Static
 	 * It's safe to call this on the main UI thread.
 	 * <p>
 	 * This will not throw any exceptions but it does not guarantee success either.
-	 * Use this as a lazy way of loading stuff in the background.
+	 * Use this as a lazy way of loading stuff in the background, or check the 
+	 * future returned.
+	 * 
+	 * @return	A future holding the catalog once the cloud wallpapers are loaded
 	 */
-	public void fetchCloudWallpapersAsync()
+	public WallpaperFuture<WallpaperCatalog> fetchCloudWallpapersAsync()
 	{
-		fetchCloudWallpapersAsync(true);
+		return fetchCloudWallpapersAsync(true);
 	}
 	
 	/**
 	 * Loads wallpapers stored on your cloud repository asynchronously. It's safe to 
 	 * call this on the main UI thread.
 	 * <p>
+	 * Wallpapers loaded within the refresh TTL in settings are served from 
+	 * memory without a request; listeners are told they're loaded right away. 
+	 * After a failure, requests are held back until the backoff has passed.
+	 * <p>
+	 * Calling this while a fetch is already running doesn't send another 
+	 * request, you're handed the future of the one in flight instead.
+	 * <p>
 	 * This will not throw any exceptions but it does not guarantee success either.
-	 * Use this as a lazy way of loading stuff in the background.
+	 * Use this as a lazy way of loading stuff in the background, or check the 
+	 * future returned.
 	 * 
 	 * @param parallel	Boolean indicating whether to run serially or in parallel. 
 	 * 					True for parallel, False for serial.
+	 * @return	A future holding the catalog once the cloud wallpapers are loaded
 	 */
-	public void fetchCloudWallpapersAsync(boolean parallel)
+	public WallpaperFuture<WallpaperCatalog> fetchCloudWallpapersAsync(boolean parallel)
 	{
-		if(cloudWallpapersTask.getStatus() == AsyncTask.Status.PENDING) {
-			// Execute task if it's ready to go!
-			cloudWallpapersTask.executeOnExecutor(parallel ? AsyncTask.THREAD_POOL_EXECUTOR : AsyncTask.SERIAL_EXECUTOR);
-		}
-		else if(cloudWallpapersTask.getStatus() == AsyncTask.Status.RUNNING && debugEnabled) {
-			// Don't execute if already running
-			Log.d(LOG_TAG, "Task is already running...");
+		return fetchCloudWallpapersAsync(parallel ? AsyncTask.THREAD_POOL_EXECUTOR : AsyncTask.SERIAL_EXECUTOR, false);
+	}
+	
+	/**
+	 * Loads wallpapers stored on your cloud repository asynchronously on the 
+	 * executor passed. Otherwise the same as {@link #fetchCloudWallpapersAsync(boolean)}.
+	 * 
+	 * @param executor
+	 * @return	A future holding the catalog once the cloud wallpapers are loaded
+	 */
+	public WallpaperFuture<WallpaperCatalog> fetchCloudWallpapersAsync(Executor executor)
+	{
+		return fetchCloudWallpapersAsync(executor, false);
+	}
+	
+	/**
+	 * Loads wallpapers stored on your cloud repository asynchronously even if 
+	 * the loaded ones are still within their TTL, such as for pull to refresh. 
+	 * Refreshes are still held back for the minimum interval and backoff in 
+	 * settings. It's safe to call this on the main UI thread.
+	 * 
+	 * @return	A future holding the catalog once the cloud wallpapers are loaded
+	 */
+	public WallpaperFuture<WallpaperCatalog> refreshCloudWallpapersAsync()
+	{
+		return fetchCloudWallpapersAsync(AsyncTask.THREAD_POOL_EXECUTOR, true);
+	}
+	
+	/**
+	 * Same as {@link #refreshCloudWallpapersAsync()} but runs on the executor passed.
+	 * 
+	 * @param executor
+	 * @return	A future holding the catalog once the cloud wallpapers are loaded
+	 */
+	public WallpaperFuture<WallpaperCatalog> refreshCloudWallpapersAsync(Executor executor)
+	{
+		return fetchCloudWallpapersAsync(executor, true);
+	}
+	
+	private WallpaperFuture<WallpaperCatalog> fetchCloudWallpapersAsync(Executor executor, boolean force)
+	{
+		// Join the fetch in flight rather than sending another request
+		WallpaperFuture<WallpaperCatalog> running = mCloudFetch.get();
+		if(running != null && !running.isDone()) {
+			if(debugEnabled)
+				Log.d(LOG_TAG, "Task is already running. Joining it...");
+			
+			return running;
 		}
-		else if(cloudWallpapersTask.getStatus() == AsyncTask.Status.FINISHED) {
-			// Okay, this is not supposed to happen. Reset and recall.
+		
+		if(!mRefreshScheduler.shouldRefresh(SystemClock.elapsedRealtime(), force)) {
 			if(debugEnabled)
-				Log.d(LOG_TAG, "Uh oh, it appears the task has finished without being reset. Resetting task...");
+				Log.d(LOG_TAG, "Cloud wallpapers aren't due for a refresh. Serving them from memory...");
+			
+			// Still backing off with nothing ever loaded means we have nothing to show
+			if(mRefreshScheduler.getFailureCount() > 0 && mCatalog.get().getCloudWallpapers().isEmpty()) {
+				notifyCloudWallpapersLoadFailed();
+				return WallpaperFuture.failed(new IOException("Backing off after failing to load cloud wallpapers"), mCallbackExecutor);
+			}
+			
+			notifyCloudWallpapersLoaded();
+			return WallpaperFuture.completed(mCatalog.get(), mCallbackExecutor);
+		}
+		
+		WallpaperFuture<WallpaperCatalog> future = new WallpaperFuture<WallpaperCatalog>(new Callable<WallpaperCatalog>() {
+			@Override
+			public WallpaperCatalog call() throws Exception {
+				try {
+					fetchCloudWallpapers();
+				} catch (Exception e) {
+					e.printStackTrace();
+					throw e;
+				}
+				return mCatalog.get();
+			}
+		}, mCallbackExecutor);
+		
+		// Somebody else started one since we looked, join theirs
+		if(!mCloudFetch.compareAndSet(running, future))
+			return fetchCloudWallpapersAsync(executor, force);
+		
+		notifyIfCancelledEarly(future, new Runnable() {
+			@Override
+			public void run() {
+				notifyCloudWallpapersLoadFailed();
+			}
+		});
+		executor.execute(future);
+		return future;
+	}
+	
+	/**
+	 * Keeps the cloud wallpapers fresh in the background while this 
+	 * manager is alive, refreshing them whenever their TTL in settings 
+	 * runs out and retrying failures with backoff. It's safe to call 
+	 * this on the main UI thread.
+	 */
+	public void startAutoRefresh()
+	{
+		mAutoRefresh = true;
+		scheduleAutoRefresh();
+	}
+	
+	/**
+	 * Stops refreshing the cloud wallpapers in the background.
+	 */
+	public void stopAutoRefresh()
+	{
+		mAutoRefresh = false;
+		mRefreshHandler.removeCallbacks(mAutoRefreshTask);
+	}
+	
+	/**
+	 * Returns whether the cloud manifest has pages that haven't 
+	 * been loaded yet. Only the first page is loaded by 
+	 * fetchCloudWallpapers, call fetchNextCloudWallpapers as the 
+	 * user scrolls or fetchRemainingCloudWallpapers to load the rest.
+	 * 
+	 * @return
+	 */
+	public boolean hasMoreCloudWallpapers()
+	{
+		return mManifestPages.hasMore();
+	}
+	
+	/**
+	 * Loads the next page of a paged cloud manifest and appends 
+	 * its wallpapers to the cloud wallpapers.
+	 * <p>
+	 * Note: Do NOT call this from the main UI thread! Call 
+	 * fetchNextCloudWallpapersAsync instead.
+	 * 
+	 * @return	False if there were no more pages.
+	 * @throws IOException
+	 */
+	public boolean fetchNextCloudWallpapers() throws IOException
+	{
+		// Pages must be appended in order, one caller at a time
+		synchronized(mManifestPages) {
+			ManifestPages.Page page = mManifestPages.take();
+			if(page == null)
+				return false;
+			
+			notifyCloudWallpapersLoading();
+			
+			try {
+				appendManifestPages(page.generation, loadManifestPage(page), page.url);
+			}
+			catch (IOException e) {
+				mManifestPages.retry(page);
+				notifyCloudWallpapersLoadFailed();
+				throw e;
+			}
+			
+			notifyCloudWallpapersLoaded();
+			return true;
+		}
+	}
+	
+	/**
+	 * Loads the next page of a paged cloud manifest asynchronously. 
+	 * Will not throw an exception. It's safe to call this on the 
+	 * main UI thread, such as when a list is scrolled near its end.
+	 */
+	public void fetchNextCloudWallpapersAsync()
+	{
+		new AsyncTask<Void, Void, Void>() {
+			@Override
+			protected Void doInBackground(Void... params) {
+				try {
+					fetchNextCloudWallpapers();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+				
+				return null;
+			}
+		}.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+	}
+	
+	/**
+	 * Loads every remaining page of a paged cloud manifest. Pages listed 
+	 * up front are requested in parallel, up to the connection limit in 
+	 * settings, and appended in order all at once when they're in.
+	 * <p>
+	 * Note: Do NOT call this from the main UI thread! Call 
+	 * fetchRemainingCloudWallpapersAsync instead.
+	 * 
+	 * @throws IOException
+	 */
+	public void fetchRemainingCloudWallpapers() throws IOException
+	{
+		synchronized(mManifestPages) {
+			if(!mManifestPages.hasMore())
+				return;
+			
+			notifyCloudWallpapersLoading();
+			
+			ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, mSettings.getMaxConnections()));
+			
+			// Published in one go rather than copying the catalog for every page
+			List<Wallpaper> loaded = new ArrayList<Wallpaper>();
+			int generation = -1;
+			
+			try {
+				// Pages may point to more pages, keep going until there are none left
+				List<ManifestPages.Page> pages;
+				while(!(pages = mManifestPages.takeAll()).isEmpty()) {
+					// A newer manifest replaced the one we were loading
+					if(generation != -1 && generation != pages.get(0).generation)
+						loaded.clear();
+					generation = pages.get(0).generation;
+					
+					List<Future<List<Wallpaper>>> results = new ArrayList<Future<List<Wallpaper>>>(pages.size());
+					for(final ManifestPages.Page page : pages) {
+						results.add(executor.submit(new Callable<List<Wallpaper>>() {
+							@Override
+							public List<Wallpaper> call() throws IOException {
+								return loadManifestPage(page);
+							}
+						}));
+					}
+					
+					for(int i = 0; i < pages.size(); i++) {
+						try {
+							loaded.addAll(results.get(i).get());
+						}
+						catch (ExecutionException e) {
+							retryManifestPages(pages.subList(i, pages.size()));
+							if(e.getCause() instanceof IOException)
+								throw (IOException) e.getCause();
+							
+							throw new IOException("Unable to load " + pages.get(i).url);
+						}
+						catch (InterruptedException e) {
+							retryManifestPages(pages.subList(i, pages.size()));
+							Thread.currentThread().interrupt();
+							throw new IOException("Interrupted while loading " + pages.get(i).url);
+						}
+					}
+				}
+			}
+			catch (IOException e) {
+				// Keep the pages that did load, the rest are retried next time
+				if(!loaded.isEmpty())
+					appendManifestPages(generation, loaded, loaded.size() + " manifest pages");
+				
+				notifyCloudWallpapersLoadFailed();
+				throw e;
+			}
+			finally {
+				executor.shutdownNow();
+			}
+			
+			if(!loaded.isEmpty())
+				appendManifestPages(generation, loaded, "remaining manifest pages");
 			
-			initCloudWallpapersTask();
-			fetchCloudWallpapersAsync(parallel);
+			notifyCloudWallpapersLoaded();
 		}
 	}
 	
+	/**
+	 * Loads every remaining page of a paged cloud manifest asynchronously. 
+	 * Will not throw an exception.
+	 */
+	public void fetchRemainingCloudWallpapersAsync()
+	{
+		new AsyncTask<Void, Void, Void>() {
+			@Override
+			protected Void doInBackground(Void... params) {
+				try {
+					fetchRemainingCloudWallpapers();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+				
+				return null;
+			}
+		}.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+	}
+	
 	/**
 	 * Loads all wallpapers. If you have cloud wallpapers enabled, 
 	 * this will load those too but might throw some exceptions.
@@ -441,55 +868,159 @@ public class PkWallpaperManager extends Static
 	}
 	
 	/**
-	 * Returns an ArrayList of Wallpaper objects loaded locally
-	 * and from the cloud combined. This list will never be null.
+	 * Returns the current catalog of wallpapers. The catalog never 
+	 * changes once returned; refreshes publish a new one with a 
+	 * higher version. This will never be null.
+	 * 
+	 * @return
+	 */
+	public WallpaperCatalog getCatalog()
+	{
+		return mCatalog.get();
+	}
+	
+	/**
+	 * Returns the index of the current catalog, for lookups by URL 
+	 * or resource, search as you type and file size filters.
+	 * 
+	 * @return
+	 */
+	public WallpaperIndex getIndex()
+	{
+		return mCatalog.get().getIndex();
+	}
+	
+	/**
+	 * Returns a list of Wallpaper objects loaded locally
+	 * and from the cloud combined. This list will never be null 
+	 * and can't be modified.
 	 * 
 	 * @return
 	 */
 	public List<Wallpaper> getWallpapers()
 	{
-		List<Wallpaper> mWallpapers = new ArrayList<Wallpaper>();
-		mWallpapers.addAll(mLocalWallpapers);
-		mWallpapers.addAll(mCloudWallpapers);
-		
-		return mWallpapers;
+		return mCatalog.get().getWallpapers();
 	}
 	
 	/**
-	 * Returns an ArrayList of Wallpaper objects loaded locally.
+	 * Returns a list of Wallpaper objects loaded locally.
+	 * This list can't be modified.
 	 * 
 	 * @return
 	 */
 	public List<Wallpaper> getLocalWallpapers()
 	{
-		return this.mCloudWallpapers;
+		return mCatalog.get().getLocalWallpapers();
 	}
 	
 	/**
-	 * Returns an ArrayList of Wallpaper objects loaded from the cloud.
+	 * Returns a list of Wallpaper objects loaded from the cloud.
+	 * This list can't be modified.
 	 * 
 	 * @return
 	 */
 	public List<Wallpaper> getCloudWallpapers()
 	{
-		return this.mCloudWallpapers;
+		return mCatalog.get().getCloudWallpapers();
 	}
 	
 	/**
 	 * Returns the amount of wallpapers currently loaded
 	 * on the manager. This applies to both, local and cloud.
 	 * 
-	 * If the either wallpaper list is null for some odd 
-	 * reason, this returns -1.
-	 * 
 	 * @return
 	 */
 	public int getNumWallpapers()
 	{
-		if(mLocalWallpapers == null || mCloudWallpapers == null)
-			return -1;
-		else
-			return (mLocalWallpapers.size() + mCloudWallpapers.size());
+		return mCatalog.get().size();
+	}
+	
+	/**
+	 * Returns the thumbnail for the Wallpaper object passed.
+	 * Thumbnails are served from the thumbnail cache and cloud 
+	 * thumbnails are only fetched from the network if they're 
+	 * not cached in memory or on disk yet.
+	 * <p>
+	 * Note: Do NOT call this from the main UI thread!
+	 * 
+	 * @param mWall
+	 * @return
+	 * @throws IOException
+	 */
+	public Bitmap loadThumbnail(Wallpaper mWall) throws IOException
+	{
+		ThumbnailCache cache = getThumbnailCache();
+		
+		// Local thumbnails are already on disk, only keep them in memory
+		if(mWall.isLocal()) {
+			String key = mWall.getThumbUri().toString();
+			Bitmap bitmap = cache.getCached(key);
+			
+			if(bitmap == null) {
+				if(Thread.currentThread().isInterrupted())
+					throw new InterruptedIOException("Cancelled loading " + key);
+				
+				bitmap = BitmapFactory.decodeResource(mContext.getResources(), mWall.getThumbResource());
+				cache.put(key, bitmap);
+			}
+			
+			return bitmap;
+		}
+		
+		return cache.get(mWall.getThumbURL());
+	}
+	
+	/**
+	 * Returns the thumbnail for the Wallpaper object passed if it's 
+	 * already decoded in memory, null otherwise. Nothing is loaded 
+	 * so this is safe to call from the main UI thread.
+	 * 
+	 * @param mWall
+	 * @return
+	 */
+	public Bitmap getCachedThumbnail(Wallpaper mWall)
+	{
+		// Creating the cache reads its disk index, leave that to the loading thread
+		ThumbnailCache cache = mThumbnailCache;
+		if(cache == null)
+			return null;
+		
+		if(mWall.isLocal())
+			return cache.getCached(mWall.getThumbUri().toString());
+		
+		return cache.getCached(mWall.getThumbURL());
+	}
+	
+	/**
+	 * Returns the thumbnail prefetcher used by this manager. Report 
+	 * the visible range of your wallpaper list to it and thumbnails 
+	 * ahead of the scroll position are loaded into the thumbnail cache.
+	 * 
+	 * @return
+	 */
+	public synchronized ThumbnailPrefetcher getThumbnailPrefetcher()
+	{
+		if(mThumbnailPrefetcher == null)
+			mThumbnailPrefetcher = new ThumbnailPrefetcher(this);
+		
+		return mThumbnailPrefetcher;
+	}
+	
+	/**
+	 * Returns the thumbnail cache used by this manager. Its memory 
+	 * and disk budgets are taken from the settings in use when this 
+	 * is first called.
+	 * 
+	 * @return
+	 */
+	public synchronized ThumbnailCache getThumbnailCache()
+	{
+		if(mThumbnailCache == null) {
+			mThumbnailCache = new ThumbnailCache(getTransport(), new File(mContext.getCacheDir(), THUMBNAIL_CACHE_DIR), mSettings.getThumbMemoryCacheSize(), mSettings.getThumbDiskCacheSize());
+			mThumbnailCache.setByteBuffer(mSettings.getByteBuffer());
+		}
+		
+		return mThumbnailCache;
 	}
 	
 	/**
@@ -522,6 +1053,8 @@ public class PkWallpaperManager extends Static
 	
 	/**
 	 * Adds an CloudWallpaperListener to this global instance.
+	 * Pass a CloudWallpaperChangeListener to also be told what 
+	 * changed on every refresh.
 	 * 
 	 * @param listener
 	 */
@@ -604,6 +1137,34 @@ public class PkWallpaperManager extends Static
 		mWallpaperDownloadListeners.clear();
 	}
 	
+	/**
+	 * Adds an BatchDownloadListener to this global instance.
+	 * 
+	 * @param listener
+	 */
+	public void addBatchDownloadListener(BatchDownloadListener listener)
+	{
+		mBatchDownloadListeners.add(listener);
+	}
+	
+	/**
+	 * Removes an BatchDownloadListener from this global instance.
+	 * 
+	 * @param listener
+	 */
+	public void removeBatchDownloadListener(BatchDownloadListener listener)
+	{
+		mBatchDownloadListeners.remove(listener);
+	}
+	
+	/**
+	 * Removes all BatchDownloadListeners from this global instance.
+	 */
+	public void removeAllBatchDownloadListeners()
+	{
+		mBatchDownloadListeners.clear();
+	}
+	
 	/**
 	 * Removes all listeners from this global instance.
 	 */
@@ -613,6 +1174,43 @@ public class PkWallpaperManager extends Static
 		mCloudWallpaperListeners.clear();
 		mWallpaperSetListeners.clear();
 		mWallpaperDownloadListeners.clear();
+		mBatchDownloadListeners.clear();
+	}
+	
+	/**
+	 * Sets the executor listeners are notified on. By default they're 
+	 * notified on the main thread. Pass a {@link DirectExecutor} to notify 
+	 * them right away on whichever thread the event happened instead.
+	 * <p>
+	 * Downloads and loading never wait on listener code unless notified 
+	 * directly, so keep direct listeners short.
+	 * 
+	 * @param executor
+	 */
+	public void setCallbackExecutor(Executor executor)
+	{
+		if(executor == null)
+			throw new IllegalArgumentException("Executor cannot be null");
+		
+		mCallbackExecutor = executor;
+	}
+	
+	/**
+	 * Returns the executor listeners are notified on.
+	 * 
+	 * @return
+	 */
+	public Executor getCallbackExecutor()
+	{
+		return mCallbackExecutor;
+	}
+	
+	/**
+	 * Notifies listeners on the callback executor.
+	 */
+	private void dispatch(Runnable notification)
+	{
+		mCallbackExecutor.execute(notification);
 	}
 	
 	/**
@@ -621,72 +1219,349 @@ public class PkWallpaperManager extends Static
 	 * You can see download progress for the wallpaper passed 
 	 * through the interface.
 	 * <p>
+	 * Interrupted downloads are resumed from where they left off 
+	 * the next time this is called, as long as the file didn't 
+	 * change on the server.
+	 * <p>
+	 * Files larger than the segment threshold in settings are split into 
+	 * byte ranges downloaded in parallel if more than one download segment 
+	 * is configured.
+	 * <p>
+	 * Downloads are checked against the length the server reported and 
+	 * the "sha256" in the manifest if there is one. Corrupt files are 
+	 * thrown away rather than scanned. If the manifest has a hash and a 
+	 * file with those exact bytes was already downloaded, that file is 
+	 * returned without downloading anything.
+	 * <p>
+	 * Progress is passed on only when the percentage changes or the 
+	 * progress interval in settings passes, and is delivered on the main 
+	 * UI thread. If a NotificationManager and Builder are passed, the 
+	 * notification's progress bar is updated the same way.
+	 * <p>
 	 * Note: Do NOT call this from the main UI thread! Call 
 	 * downloadWallpaperAsync instead.
 	 * 
 	 * @param mWall
+	 * @param notification
+	 * @param builder
+	 * @return	The downloaded file, null if the wallpaper is null or local
 	 * @throws IOException
 	 */
-	public void downloadWallpaper(Wallpaper mWall, NotificationManager notification, Builder builder) throws IOException
+	public File downloadWallpaper(final Wallpaper mWall, NotificationManager notification, Builder builder) throws IOException
 	{
 		// Returns and does nothing if the wallpaper is null or local
 		if(mWall == null || mWall.isLocal()) {
 			if(debugEnabled)
 				Log.d(LOG_TAG, "Unable to download image. " + mWall == null ? "Wallpaper object is null." : "Wallpaper object is local.");
 			
-			return;
+			return null;
+		}
+		
+		// Nothing to do if we already have these exact bytes
+		File existing = findDownloadedContent(mWall);
+		if(existing != null) {
+			if(debugEnabled)
+				Log.d(LOG_TAG, "Wallpaper is already downloaded to " + existing + ". Skipping...");
+			
+			notifyWallpaperDownloaded(mWall);
+			return existing;
 		}
 		
+		return finishWallpaper(mWall, transferWallpaper(mWall, notification, builder, null), notification, builder);
+	}
+	
+	/**
+	 * Downloads a batch of wallpapers, one after another over kept-alive 
+	 * connections. While one wallpaper is flushed to disk and scanned, the 
+	 * next one is already being downloaded.
+	 * <p>
+	 * Wallpapers that fail are reported through the download listeners 
+	 * and skipped. Overall progress is reported through the batch download 
+	 * listeners.
+	 * <p>
+	 * Note: Do NOT call this from the main UI thread! Call 
+	 * downloadWallpapersAsync instead.
+	 * 
+	 * @param wallpapers
+	 */
+	public void downloadWallpapers(Collection<Wallpaper> wallpapers)
+	{
+		// Only cloud wallpapers can be downloaded
+		final List<Wallpaper> items = new ArrayList<Wallpaper>(wallpapers.size());
+		long size = 0;
+		for(Wallpaper mWall : wallpapers) {
+			if(mWall != null && !mWall.isLocal()) {
+				items.add(mWall);
+				size += Math.max(mWall.getFileSize(), 0);
+			}
+		}
+		
+		final int totalItems = items.size();
+		final long totalBytes = size;
+		final AtomicInteger downloadedItems = new AtomicInteger();
+		final AtomicInteger failedItems = new AtomicInteger();
+		final AtomicLong transferredBytes = new AtomicLong();
+		
 		// Loop through all listeners notifying them
-        for(WallpaperDownloadListener mListener : mWallpaperDownloadListeners) {
-        	mListener.onWallpaperDownloading(mWall, 0);
-        }
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for(BatchDownloadListener mListener : mBatchDownloadListeners) {
+					mListener.onBatchDownloading(0, totalItems, 0, totalBytes);
+				}
+			}
+		});
+		
+		// One wallpaper is flushed and scanned on one thread while the next downloads on the other
+		ExecutorService pipeline = Executors.newFixedThreadPool(2);
+		final Semaphore transferPermit = new Semaphore(1, true);
+		final Semaphore finished = new Semaphore(0);
+		int finishing = 0;
+		
+		for(final Wallpaper mWall : items) {
+			try {
+				// Already on disk with the exact same bytes
+				if(findDownloadedContent(mWall) != null) {
+					downloadedItems.incrementAndGet();
+					transferredBytes.addAndGet(Math.max(mWall.getFileSize(), 0));
+					notifyWallpaperDownloaded(mWall);
+					continue;
+				}
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+			
+			WallpaperFuture<File> item = new WallpaperFuture<File>(new Callable<File>() {
+				@Override
+				public File call() throws Exception {
+					try {
+						return finishWallpaper(mWall, transferBatchItem(mWall), null, null);
+					} catch (Exception e) {
+						notifyWallpaperDownloadFailed(mWall);
+						
+						e.printStackTrace();
+						throw e;
+					}
+				}
+				
+				/**
+				 * Transfers the wallpaper once the one before it is done 
+				 * transferring, reporting progress on top of what's done.
+				 */
+				private WallpaperDownloader transferBatchItem(Wallpaper mWall) throws IOException, InterruptedException
+				{
+					transferPermit.acquire();
+					try {
+						// Only one transfer runs at a time, so nothing else adds to this meanwhile
+						final long transferredBefore = transferredBytes.get();
+						WallpaperDownloader downloader = transferWallpaper(mWall, null, null, new WallpaperDownloader.ProgressListener() {
+							@Override
+							public void onProgress(long downloaded, long total) {
+								// Loop through all listeners notifying them
+								for(BatchDownloadListener mListener : mBatchDownloadListeners) {
+									mListener.onBatchDownloading(downloadedItems.get(), totalItems, transferredBefore + downloaded, totalBytes);
+								}
+							}
+						});
+						transferredBytes.addAndGet(Math.max(mWall.getFileSize(), 0));
+						
+						return downloader;
+					}
+					finally {
+						transferPermit.release();
+					}
+				}
+			}, mCallbackExecutor);
+			
+			// Downloading the same wallpaper elsewhere meanwhile joins this one and the other way around
+			final WallpaperFuture<File> scheduled = getDownloadScheduler().submit(mWall.getFullURL(), DownloadScheduler.Priority.USER, item, pipeline);
+			final boolean joined = scheduled != item;
+			if(joined && debugEnabled)
+				Log.d(LOG_TAG, "Wallpaper is already being downloaded, waiting for it...");
+			
+			finishing++;
+			scheduled.addCallback(new WallpaperFuture.Callback<File>() {
+				@Override
+				public void onSuccess(File result) {
+					downloadedItems.incrementAndGet();
+					if(joined)
+						transferredBytes.addAndGet(Math.max(mWall.getFileSize(), 0));
+					
+					onFinished();
+				}
+				
+				@Override
+				public void onFailure(Throwable error) {
+					failedItems.incrementAndGet();
+					onFinished();
+				}
+				
+				private void onFinished() {
+					final int downloaded = downloadedItems.get();
+					final long transferred = transferredBytes.get();
+					
+					// Loop through all listeners notifying them
+					dispatch(new Runnable() {
+						@Override
+						public void run() {
+							for(BatchDownloadListener mListener : mBatchDownloadListeners) {
+								mListener.onBatchDownloading(downloaded, totalItems, transferred, totalBytes);
+							}
+						}
+					});
+					finished.release();
+				}
+			}, new DirectExecutor());
+		}
+		
+		// Wait for the last wallpapers to be finished
+		try {
+			finished.acquire(finishing);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		pipeline.shutdown();
+		
+		if(debugEnabled)
+			Log.d(LOG_TAG, "Finished downloading " + downloadedItems.get() + " of " + totalItems + " wallpapers!");
+		
+		final int downloaded = downloadedItems.get();
+		final int failed = failedItems.get();
 		
-        // Connect to the server
-        URL url = new URL(mSettings.getStorageURL() + "/" + mSettings.getWallpaperPath() + "/" + mWall.getRelativeFullURL());
-        URLConnection connection = url.openConnection();
-        connection.connect();
-        InputStream input = new BufferedInputStream(url.openStream(), 8192);
+		// Loop through all listeners notifying them
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for(BatchDownloadListener mListener : mBatchDownloadListeners) {
+					mListener.onBatchDownloaded(downloaded, failed);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Downloads a batch of wallpapers asynchronously on the download 
+	 * scheduler. Will not throw an exception. Check the interfaces 
+	 * for progress and failed status.
+	 * 
+	 * @param wallpapers
+	 */
+	public void downloadWallpapersAsync(Collection<Wallpaper> wallpapers)
+	{
+		final List<Wallpaper> items = new ArrayList<Wallpaper>(wallpapers);
+		
+		boolean scheduled = getDownloadScheduler().schedule("batch:" + mBatchSequence.incrementAndGet(), DownloadScheduler.Priority.USER, new Runnable() {
+			@Override
+			public void run() {
+				downloadWallpapers(items);
+			}
+		});
+		if(!scheduled && debugEnabled)
+			Log.d(LOG_TAG, "Unable to schedule batch download, one with the same key is in flight.");
+	}
+	
+	/**
+	 * Transfers the wallpaper's bytes into its partial file, notifying 
+	 * the download listeners of progress. The download still has to be 
+	 * finished with {@link #finishWallpaper}.
+	 * <p>
+	 * Progress is throttled and delivered off the I/O thread to the 
+	 * download listeners, the notification if there is one, and the 
+	 * extra progress listener passed if there is one.
+	 */
+	private WallpaperDownloader transferWallpaper(final Wallpaper mWall, final NotificationManager notification, final Builder builder, final WallpaperDownloader.ProgressListener listener) throws IOException
+	{
+		// Loop through all listeners notifying them
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for(WallpaperDownloadListener mListener : mWallpaperDownloadListeners) {
+					mListener.onWallpaperDownloading(mWall, 0);
+				}
+			}
+		});
         
-        // Output stream
-        String fileName = mWall.getTitle().length() > 0 ? mWall.getTitle() + mWall.getRelativeFullURL().substring(mWall.getRelativeFullURL().lastIndexOf(".")) : mWall.getRelativeFullURL();
-        File file = new File(mSettings.getSaveLocation() + "/" + fileName);
-        file.getParentFile().mkdirs();
-        OutputStream output = new FileOutputStream(file);
-
-        byte data[] = new byte[mSettings.getByteBuffer()];
-		int count, progress, total = 0;
-        while ((count = input.read(data)) != -1) {
-            total += count;
-            progress = (int) ((total * 100) / mWall.getFileSize());
-            Log.d(LOG_TAG, "Download Progress: " + progress);
-            
-            // Loop through all listeners notifying them
-            for(WallpaperDownloadListener mListener : mWallpaperDownloadListeners) {
-            	mListener.onWallpaperDownloading(mWall, progress);
-            }
-
-            // Writing data to file
-            output.write(data, 0, count);
+        ProgressDispatcher dispatcher = new ProgressDispatcher(mCallbackExecutor, mSettings.getProgressInterval()) {
+        	@Override
+        	protected void onProgressChanged(int progress, long downloaded, long total) {
+        		if(debugEnabled)
+        			Log.d(LOG_TAG, "Download Progress: " + progress);
+        		
+        		// Loop through all listeners notifying them
+        		for(WallpaperDownloadListener mListener : mWallpaperDownloadListeners) {
+        			mListener.onWallpaperDownloading(mWall, progress);
+        		}
+        		
+        		if(notification != null && builder != null) {
+        			builder.setProgress(MAX_PROGRESS, progress, false);
+        			notification.notify(getNotificationId(mWall), builder.build());
+        		}
+        		
+        		if(listener != null)
+        			listener.onProgress(downloaded, total);
+        	}
+        };
+		
+        // Download into a partial file, resuming from a previous attempt if possible
+        WallpaperDownloader downloader = new WallpaperDownloader(getTransport(), mSettings.getStorageURL() + "/" + mSettings.getWallpaperPath() + "/" + mWall.getRelativeFullURL(), getDownloadFile(mWall));
+        downloader.setByteBuffer(mSettings.getByteBuffer());
+        downloader.setExpectedLength(mWall.getFileSize());
+        downloader.setExpectedHash(mWall.getSha256());
+        downloader.setSegments(mSettings.getDownloadSegments(), mSettings.getSegmentThreshold());
+        downloader.setProgressListener(dispatcher);
+        
+        try {
+        	downloader.transfer();
+        }
+        finally {
+        	// Never leave listeners behind on a swallowed update
+        	dispatcher.flush();
         }
-
-        // Flushing output
-        output.flush();
-
-        // Closing streams
-        output.close();
-        input.close();
         
+        return downloader;
+	}
+	
+	/**
+	 * Checks a transferred wallpaper, moves it into place, scans 
+	 * it and notifies the download listeners.
+	 */
+	private File finishWallpaper(final Wallpaper mWall, WallpaperDownloader downloader, final NotificationManager notification, final Builder builder) throws IOException
+	{
+		// Throws before anything is scanned if the bytes are corrupt
+		File file = downloader.complete();
+		mDownloadIndex.put(downloader.getHash(), file);
+		
         // Scan media for newly downloaded image
         new SingleMediaScanner(mContext, file).scanMedia();
         
-        // Loop through all listeners notifying them
-        for(WallpaperDownloadListener mListener : mWallpaperDownloadListeners) {
-        	mListener.onWallpaperDownloaded(mWall);
+        // Take the progress bar down, through the same executor so it lands after the last update
+        if(notification != null && builder != null) {
+        	final int id = getNotificationId(mWall);
+        	mCallbackExecutor.execute(new Runnable() {
+        		@Override
+        		public void run() {
+        			builder.setProgress(0, 0, false);
+        			notification.notify(id, builder.build());
+        		}
+        	});
         }
         
+        notifyWallpaperDownloaded(mWall);
+        
         if(debugEnabled)
         	Log.d(LOG_TAG, "Finished downloading wallpaper!");
+        
+        return file;
+	}
+	
+	/**
+	 * Notification ID used for the download progress of the wallpaper passed.
+	 */
+	private static int getNotificationId(Wallpaper mWall)
+	{
+		return mWall.getRelativeFullURL().hashCode();
 	}
 	
 	/**
@@ -697,32 +1572,126 @@ public class PkWallpaperManager extends Static
 	 * through the interface.
 	 * 
 	 * @param mWall
+	 * @return	A future holding the downloaded file
 	 */
-	public void downloadWallpaperAsync(final Wallpaper mWall, final NotificationManager notification, final Builder builder)
+	public WallpaperFuture<File> downloadWallpaperAsync(final Wallpaper mWall, final NotificationManager notification, final Builder builder)
 	{
-		new AsyncTask<Void, Void, Void>() {
+		return downloadWallpaperAsync(mWall, notification, builder, DownloadScheduler.Priority.USER);
+	}
+	
+	/**
+	 * Downloads the wallpaper. Will not thrown an exception. 
+	 * Check the interface for failed status.
+	 * <p>
+	 * Downloads are queued on the download scheduler, which limits how 
+	 * many run at once and serves user-initiated downloads before 
+	 * prefetches. Calling this again for a wallpaper that is already 
+	 * queued or downloading does not download it twice, you're handed 
+	 * the future of the download in flight instead.
+	 * 
+	 * @param mWall
+	 * @param notification
+	 * @param builder
+	 * @param priority
+	 * @return	A future holding the downloaded file
+	 */
+	public WallpaperFuture<File> downloadWallpaperAsync(final Wallpaper mWall, final NotificationManager notification, final Builder builder, DownloadScheduler.Priority priority)
+	{
+		// Returns and does nothing if the wallpaper is null or local
+		if(mWall == null || mWall.isLocal()) {
+			String reason = mWall == null ? "Wallpaper object is null." : "Wallpaper object is local.";
+			if(debugEnabled)
+				Log.d(LOG_TAG, "Unable to download image. " + reason);
+			
+			return WallpaperFuture.failed(new IllegalArgumentException(reason), mCallbackExecutor);
+		}
+		
+		WallpaperFuture<File> future = new WallpaperFuture<File>(new Callable<File>() {
 			@Override
-			protected Void doInBackground(Void... params) {
+			public File call() throws Exception {
 				try {
-					downloadWallpaper(mWall, notification, builder);
+					return downloadWallpaper(mWall, notification, builder);
 				} catch (Exception e) {
-					// Loop through all listeners notifying them
-			        for(WallpaperDownloadListener mListener : mWallpaperDownloadListeners) {
-			        	mListener.onWallpaperDownloadFailed(mWall);
-			        }
-			        
+					notifyWallpaperDownloadFailed(mWall);
+					
 					e.printStackTrace();
+					throw e;
 				}
-				
-				return null;
 			}
-		}.execute();
+		}, mCallbackExecutor);
+		
+		notifyIfCancelledEarly(future, new Runnable() {
+			@Override
+			public void run() {
+				notifyWallpaperDownloadFailed(mWall);
+			}
+		});
+		
+		WallpaperFuture<File> scheduled = getDownloadScheduler().submit(mWall.getFullURL(), priority, future);
+		if(scheduled != future && debugEnabled)
+			Log.d(LOG_TAG, "Wallpaper is already being downloaded...");
+		
+		return scheduled;
+	}
+	
+	/**
+	 * Returns the transport used for metadata, thumbnails and downloads. 
+	 * Unless one was set, this is a pooled {@link HttpTransport} whose 
+	 * timeouts and connection limit are taken from the settings in use 
+	 * when this is first called.
+	 * 
+	 * @return
+	 */
+	public synchronized WallpaperTransport getTransport()
+	{
+		if(mTransport == null)
+			mTransport = new HttpTransport(mSettings);
+		
+		return mTransport;
+	}
+	
+	/**
+	 * Replaces the transport used for metadata, thumbnails and downloads. 
+	 * Requests already in progress finish on the transport they started 
+	 * with, so the previous transport is left for the caller to shut down.
+	 * 
+	 * @param transport
+	 */
+	public synchronized void setTransport(WallpaperTransport transport)
+	{
+		if(transport == null)
+			throw new IllegalArgumentException("Transport cannot be null");
+		
+		mTransport = transport;
+		
+		// The thumbnail cache holds on to the transport it was created with
+		mThumbnailCache = null;
+	}
+	
+	/**
+	 * Returns the scheduler used for asynchronous downloads. The 
+	 * number of concurrent downloads is taken from the settings 
+	 * in use when this is first called.
+	 * 
+	 * @return
+	 */
+	public synchronized DownloadScheduler getDownloadScheduler()
+	{
+		if(mDownloadScheduler == null)
+			mDownloadScheduler = new DownloadScheduler(mSettings.getMaxConcurrentDownloads());
+		
+		return mDownloadScheduler;
 	}
 	
 	/**
 	 * Sets the system wallpaper to the Wallpaper object passed.
 	 * May throw an exception if the data is invalid.
 	 * <p>
+	 * Cloud wallpapers are streamed straight to the system if enabled 
+	 * in settings, using the downloaded copy if there is one. Otherwise 
+	 * they're decoded at the device's desired wallpaper size rather 
+	 * than at their full resolution.
+	 * <p>
 	 * Note: Do NOT call this from the main UI thread if you're 
 	 * setting it to a cloud wallpaper! Call setWallpaperAsync instead.
 	 * 
@@ -742,15 +1711,47 @@ public class PkWallpaperManager extends Static
 		// Set resource if local, otherwise download it and set it
 		if(mWall.isLocal())
 			wallManager.setResource(mWall.getFullResource());
+		else if(mSettings.getStreamWallpapers()) {
+			// Hand the bytes straight to the system, only decode if a listener wants the bitmap
+			File file = getDownloadedFile(mWall);
+			boolean decode = !mWallpaperSetListeners.isEmpty();
+			
+			if(file != null) {
+				streamWallpaperFromFile(mContext, file);
+				if(decode)
+					bitmap = getWallpaperBitmap(mContext, file);
+			}
+			else if(!decode) {
+				streamWallpaperFromURL(mContext, getTransport(), mWall.getFullURL());
+			}
+			else {
+				file = File.createTempFile("wallpaper", null);
+				try {
+					downloadToFile(getTransport(), mWall.getFullURL(), file);
+					streamWallpaperFromFile(mContext, file);
+					bitmap = getWallpaperBitmap(mContext, file);
+				}
+				finally {
+					file.delete();
+				}
+			}
+		}
 		else {
-			bitmap = getBitmapFromURL(mWall.getFullURL());
+			bitmap = getWallpaperBitmap(mContext, getTransport(), mWall.getFullURL());
 			wallManager.setBitmap(bitmap);
 		}
 		
+		final Bitmap result = bitmap;
+		
 		// Loop through all listeners notifying them
-        for(WallpaperSetListener mListener : mWallpaperSetListeners) {
-        	mListener.onWallpaperSet(bitmap);
-        }
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for(WallpaperSetListener mListener : mWallpaperSetListeners) {
+					mListener.onWallpaperSet(result);
+				}
+			}
+		});
         
 		if(debugEnabled)
 			Log.d(LOG_TAG, "Successfully set wallpaper!");
@@ -760,29 +1761,87 @@ public class PkWallpaperManager extends Static
 	 * Sets the system wallpaper to the Wallpaper object passed. 
 	 * <p>
 	 * This does not guarantee success. For further detail, set a 
-	 * listener
+	 * listener or check the future returned.
 	 * 
 	 * @param mWall
+	 * @return	A future that's done once the wallpaper is set
 	 */
-	public void setWallpaperAsync(final Wallpaper mWall)
+	public WallpaperFuture<Void> setWallpaperAsync(Wallpaper mWall)
 	{
-		new AsyncTask<Void, Void, Void>() {
+		return setWallpaperAsync(mWall, AsyncTask.SERIAL_EXECUTOR);
+	}
+	
+	/**
+	 * Sets the system wallpaper to the Wallpaper object passed 
+	 * on the executor passed.
+	 * <p>
+	 * This does not guarantee success. For further detail, set a 
+	 * listener or check the future returned.
+	 * 
+	 * @param mWall
+	 * @param executor
+	 * @return	A future that's done once the wallpaper is set
+	 */
+	public WallpaperFuture<Void> setWallpaperAsync(final Wallpaper mWall, Executor executor)
+	{
+		WallpaperFuture<Void> future = new WallpaperFuture<Void>(new Callable<Void>() {
 			@Override
-			protected Void doInBackground(Void... params) {
+			public Void call() throws Exception {
 				try {
 					setWallpaper(mWall);
 				} catch (Exception e) {
-					// Loop through all listeners notifying them
-			        for(WallpaperSetListener mListener : mWallpaperSetListeners) {
-			        	mListener.onWallpaperSetFailed();
-			        }
-			        
+					notifyWallpaperSetFailed();
+					
 					e.printStackTrace();
+					throw e;
 				}
 				
 				return null;
 			}
-		}.execute();
+		}, mCallbackExecutor);
+		
+		notifyIfCancelledEarly(future, new Runnable() {
+			@Override
+			public void run() {
+				notifyWallpaperSetFailed();
+			}
+		});
+		executor.execute(future);
+		return future;
+	}
+	
+	/**
+	 * Returns the file the Wallpaper object passed is downloaded to.
+	 * 
+	 * @param mWall
+	 * @return
+	 */
+	public File getDownloadFile(Wallpaper mWall)
+	{
+		String fileName = mWall.getTitle().length() > 0 ? mWall.getTitle() + mWall.getRelativeFullURL().substring(mWall.getRelativeFullURL().lastIndexOf(".")) : mWall.getRelativeFullURL();
+		return new File(mSettings.getSaveLocation() + "/" + fileName);
+	}
+	
+	/**
+	 * Returns the downloaded file for the Wallpaper object passed 
+	 * or null if it hasn't been fully downloaded.
+	 * 
+	 * @param mWall
+	 * @return
+	 * @throws IOException
+	 */
+	private File getDownloadedFile(Wallpaper mWall) throws IOException
+	{
+		// Only trust the bytes if we can
+		if(mWall.getSha256() != null)
+			return findDownloadedContent(mWall);
+		
+		File file = getDownloadFile(mWall);
+		
+		if(!file.isFile() || (mWall.getFileSize() > 0 && file.length() != mWall.getFileSize()))
+			return null;
+		
+		return file;
 	}
 	
 	/**
@@ -803,6 +1862,13 @@ public class PkWallpaperManager extends Static
 	public void setSettings(WallpaperSettings settings)
 	{
 		this.mSettings = settings;
+		this.mRefreshScheduler.setSettings(settings);
+		
+		// The snapshot may not have been usable with the old settings
+		this.mSnapshotRestored.set(false);
+		
+		// What we have may be from another server, refresh it right away
+		scheduleAutoRefresh();
 	}
 	
 	/**
@@ -822,61 +1888,375 @@ public class PkWallpaperManager extends Static
 	}
 	
 	/**
-	 * Initializes our handy little client for cloud calls.
-	 * Don't modify this unless you know what you're doing.
+	 * Requests and parses a single manifest page. Pages it points 
+	 * to are queued, unless a newer manifest was loaded meanwhile.
 	 */
-	private void initHttpClient()
+	private List<Wallpaper> loadManifestPage(ManifestPages.Page page) throws IOException
 	{
-		// Basic HTTP parameters & manager set up
-		HttpParams parameters = new BasicHttpParams();
-		HttpProtocolParams.setVersion(parameters, HttpVersion.HTTP_1_1);
-		HttpProtocolParams.setContentCharset(parameters, HTTP.DEFAULT_CONTENT_CHARSET);
-		HttpProtocolParams.setUseExpectContinue(parameters, false);
-		HttpConnectionParams.setTcpNoDelay(parameters, true);
-		HttpConnectionParams.setSocketBufferSize(parameters, 8192);
+		if(debugEnabled)
+			Log.d(LOG_TAG, "Loading manifest page " + page.url + "...");
 		
-		SchemeRegistry schReg = new SchemeRegistry();
-		schReg.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
-		ClientConnectionManager tsccm = new ThreadSafeClientConnManager(parameters, schReg);
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put(HttpTransport.HEADER_ACCEPT_ENCODING, HttpTransport.ENCODING_GZIP);
 		
-		// Finally, initialize our client with these parameters and manager
-		this.httpClient = new DefaultHttpClient(tsccm, parameters);
+		List<Wallpaper> wallpapers = new ArrayList<Wallpaper>();
+		List<String> pages = new ArrayList<String>();
+		WallpaperTransport.Response response = getTransport().get(page.url, headers);
+		Runnable abort = Cancellation.register(response);
+		boolean finished = false;
+		
+		try {
+			int status = response.getStatusCode();
+			if(status >= 300)
+				throw new HttpResponseException(status, response.getReasonPhrase());
+			
+			new WallpaperParser(getWallpaperPathURL()).parse(response.getContent(), wallpapers, pages);
+			finished = true;
+		}
+		finally {
+			Cancellation.unregister(abort);
+			
+			if(finished)
+				response.close();
+			else
+				response.abort();
+		}
+		
+		mManifestPages.add(page.generation, page.url, pages);
+		return wallpapers;
 	}
 	
 	/**
-	 * Initializes our local wallpapers thread.
+	 * Publishes a new catalog with the wallpapers passed added after the 
+	 * cloud wallpapers, unless a newer manifest was loaded meanwhile.
 	 */
-	private void initLocalWallpapersTask()
+	private void appendManifestPages(int generation, List<Wallpaper> wallpapers, String source)
 	{
-		this.localWallpapersTask = new AsyncTask<Void, Void, Void>() {
+		WallpaperCatalog current;
+		WallpaperCatalog next;
+		
+		// A new manifest swaps in its first page under the same lock
+		synchronized(mManifestPages) {
+			do {
+				if(!mManifestPages.isCurrent(generation))
+					return;
+				
+				current = mCatalog.get();
+				List<Wallpaper> cloudWallpapers = new ArrayList<Wallpaper>(current.getCloudWallpapers().size() + wallpapers.size());
+				cloudWallpapers.addAll(current.getCloudWallpapers());
+				cloudWallpapers.addAll(wallpapers);
+				next = current.withCloudWallpapers(cloudWallpapers);
+			} while(!mCatalog.compareAndSet(current, next));
+		}
+		
+		// Only index once the last page is in, searches build it themselves until then
+		if(!mManifestPages.hasMore())
+			next.getIndex();
+		
+		notifyCloudWallpapersChanged(CatalogDiff.appended(current, next, wallpapers));
+		
+		if(debugEnabled)
+			Log.d(LOG_TAG, "Appended " + wallpapers.size() + " cloud wallpapers from " + source);
+		
+		saveSnapshot();
+	}
+	
+	/**
+	 * Posts the next background refresh for when it's due, 
+	 * if auto refresh is on.
+	 */
+	private void scheduleAutoRefresh()
+	{
+		if(!mAutoRefresh)
+			return;
+		
+		mRefreshHandler.removeCallbacks(mAutoRefreshTask);
+		mRefreshHandler.postDelayed(mAutoRefreshTask, mRefreshScheduler.getRefreshDelay(SystemClock.elapsedRealtime()));
+	}
+	
+	/**
+	 * Keeps the pages passed for next time, in the same order.
+	 */
+	private void retryManifestPages(List<ManifestPages.Page> pages)
+	{
+		for(int i = pages.size() - 1; i >= 0; i--) {
+			mManifestPages.retry(pages.get(i));
+		}
+	}
+	
+	/**
+	 * Base URL every relative wallpaper source is resolved against.
+	 */
+	private String getWallpaperPathURL()
+	{
+		return mSettings.getStorageURL() + "/" + mSettings.getWallpaperPath() + "/";
+	}
+	
+	private void notifyCloudWallpapersLoading()
+	{
+		// Loop through all listeners notifying them
+		dispatch(new Runnable() {
 			@Override
-			protected Void doInBackground(Void... params) {
-				try {
-					fetchLocalWallpapers();
-				} catch (Exception e) {
-					e.printStackTrace();
+			public void run() {
+				for(CloudWallpaperListener mListener : mCloudWallpaperListeners) {
+					mListener.onCloudWallpapersLoading();
+				}
+			}
+		});
+	}
+	
+	private void notifyCloudWallpapersLoaded()
+	{
+		// Loop through all listeners notifying them
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for(CloudWallpaperListener mListener : mCloudWallpaperListeners) {
+					mListener.onCloudWallpapersLoaded();
+				}
+			}
+		});
+	}
+	
+	private boolean hasCloudWallpaperChangeListeners()
+	{
+		for(CloudWallpaperListener mListener : mCloudWallpaperListeners) {
+			if(mListener instanceof CloudWallpaperChangeListener)
+				return true;
+		}
+		
+		return false;
+	}
+	
+	private void notifyCloudWallpapersChanged(final CatalogDiff diff)
+	{
+		if(diff.isEmpty())
+			return;
+		
+		if(debugEnabled)
+			Log.d(LOG_TAG, "Cloud wallpapers changed. " + diff);
+		
+		// Loop through all listeners notifying them
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for(CloudWallpaperListener mListener : mCloudWallpaperListeners) {
+					if(mListener instanceof CloudWallpaperChangeListener)
+						((CloudWallpaperChangeListener) mListener).onCloudWallpapersChanged(diff);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Returns a file already on disk with the exact bytes of the wallpaper 
+	 * passed, or null if there's none or the manifest has no hash for it.
+	 */
+	private File findDownloadedContent(Wallpaper mWall) throws IOException
+	{
+		String sha256 = mWall.getSha256();
+		if(sha256 == null)
+			return null;
+		
+		File file = mDownloadIndex.find(sha256, mWall.getFileSize());
+		if(file != null)
+			return file;
+		
+		// Saved before it was indexed, check its bytes once
+		file = getDownloadFile(mWall);
+		if(!file.isFile() || (mWall.getFileSize() > 0 && file.length() != mWall.getFileSize()))
+			return null;
+		if(!sha256.equals(DownloadIndex.hash(file)))
+			return null;
+		
+		mDownloadIndex.put(sha256, file);
+		return file;
+	}
+	
+	private void notifyWallpaperDownloaded(final Wallpaper mWall)
+	{
+		// Loop through all listeners notifying them
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for(WallpaperDownloadListener mListener : mWallpaperDownloadListeners) {
+					mListener.onWallpaperDownloaded(mWall);
+				}
+			}
+		});
+	}
+	
+	private void notifyWallpaperDownloadFailed(final Wallpaper mWall)
+	{
+		// Loop through all listeners notifying them
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for(WallpaperDownloadListener mListener : mWallpaperDownloadListeners) {
+					mListener.onWallpaperDownloadFailed(mWall);
 				}
-				return null;
+			}
+		});
+	}
+	
+	private void notifyWallpaperSetFailed()
+	{
+		// Loop through all listeners notifying them
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for(WallpaperSetListener mListener : mWallpaperSetListeners) {
+					mListener.onWallpaperSetFailed();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Runs the notification passed if the future is cancelled before it 
+	 * started. Work that did start reports its own cancellation as a failure.
+	 */
+	private <V> void notifyIfCancelledEarly(final WallpaperFuture<V> future, final Runnable notification)
+	{
+		future.addCallback(new WallpaperFuture.Callback<V>() {
+			@Override
+			public void onSuccess(V result) {
 			}
 			
 			@Override
-			protected void onPostExecute(Void p)
-			{
-				initLocalWallpapersTask();
+			public void onFailure(Throwable error) {
+				if(future.isCancelled() && !future.hasStarted())
+					notification.run();
 			}
-		};
+		}, new DirectExecutor());
+	}
+	
+	private void notifyCloudWallpapersLoadFailed()
+	{
+		// Loop through all listeners notifying them
+		dispatch(new Runnable() {
+			@Override
+			public void run() {
+				for(CloudWallpaperListener mListener : mCloudWallpaperListeners) {
+					mListener.onCloudWallpapersLoadFailed();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Publishes a new catalog with the local wallpapers passed. 
+	 * Retries if the cloud wallpapers were published meanwhile 
+	 * so neither refresh is lost.
+	 */
+	private WallpaperCatalog publishLocalWallpapers(List<Wallpaper> wallpapers)
+	{
+		WallpaperCatalog current;
+		WallpaperCatalog next;
+		
+		do {
+			current = mCatalog.get();
+			next = current.withLocalWallpapers(wallpapers);
+		} while(!mCatalog.compareAndSet(current, next));
+		
+		return next;
+	}
+	
+	/**
+	 * Publishes a new catalog with the cloud wallpapers passed. 
+	 * Retries if the local wallpapers were published meanwhile 
+	 * so neither refresh is lost.
+	 */
+	private WallpaperCatalog publishCloudWallpapers(List<Wallpaper> wallpapers)
+	{
+		WallpaperCatalog current;
+		WallpaperCatalog next;
+		
+		do {
+			current = mCatalog.get();
+			next = current.withCloudWallpapers(wallpapers);
+		} while(!mCatalog.compareAndSet(current, next));
+		
+		// Only worth comparing if someone wants to know
+		if(hasCloudWallpaperChangeListeners())
+			notifyCloudWallpapersChanged(CatalogDiff.compute(current, next));
+		
+		return next;
+	}
+	
+	/**
+	 * Restores the wallpaper lists from the last snapshot saved on disk, 
+	 * once per settings, when the first fetch starts. This is done in a 
+	 * single sequential read so wallpapers are available right away while 
+	 * the fetch revalidates them. Lists a fetch already loaded are kept.
+	 */
+	private void restoreSnapshot()
+	{
+		if(!mSettings.getCacheEnabled() || !mSnapshotRestored.compareAndSet(false, true))
+			return;
+		
+		List<Wallpaper> localWallpapers = new ArrayList<Wallpaper>();
+		List<Wallpaper> cloudWallpapers = new ArrayList<Wallpaper>();
+		
+		try {
+			if(!mCatalogSnapshot.load(localWallpapers, cloudWallpapers))
+				return;
+			
+			// Cloud wallpapers from another storage URL are of no use
+			String pathURL = getWallpaperPathURL();
+			for(Iterator<Wallpaper> iterator = cloudWallpapers.iterator(); iterator.hasNext();) {
+				if(!pathURL.equals(iterator.next().getPathURL()))
+					iterator.remove();
+			}
+			
+			WallpaperCatalog current;
+			WallpaperCatalog next;
+			
+			do {
+				current = mCatalog.get();
+				next = current.withWallpapers(
+						current.getLocalWallpapers().isEmpty() ? localWallpapers : current.getLocalWallpapers(), 
+						current.getCloudWallpapers().isEmpty() ? cloudWallpapers : current.getCloudWallpapers());
+			} while(!mCatalog.compareAndSet(current, next));
+			
+			if(debugEnabled)
+				Log.d(LOG_TAG, "Restored " + getNumWallpapers() + " wallpapers from snapshot.");
+		}
+		catch (IOException e) {
+			// A broken snapshot is no worse than no snapshot at all
+			mCatalogSnapshot.clear();
+			e.printStackTrace();
+		}
 	}
 	
 	/**
-	 * Initializes our cloud wallpapers thread.
+	 * Saves both wallpaper lists to disk for the next cold start.
 	 */
-	private void initCloudWallpapersTask()
+	private void saveSnapshot()
 	{
-		this.cloudWallpapersTask = new AsyncTask<Void, Void, Void>() {
+		if(!mSettings.getCacheEnabled())
+			return;
+		
+		WallpaperCatalog catalog = mCatalog.get();
+		
+		try {
+			mCatalogSnapshot.save(catalog.getLocalWallpapers(), catalog.getCloudWallpapers());
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Initializes our local wallpapers thread.
+	 */
+	private void initLocalWallpapersTask()
+	{
+		this.localWallpapersTask = new AsyncTask<Void, Void, Void>() {
 			@Override
 			protected Void doInBackground(Void... params) {
 				try {
-					fetchCloudWallpapers();
+					fetchLocalWallpapers();
 				} catch (Exception e) {
 					e.printStackTrace();
 				}
@@ -886,7 +2266,7 @@ public class PkWallpaperManager extends Static
 			@Override
 			protected void onPostExecute(Void p)
 			{
-				initCloudWallpapersTask();
+				initLocalWallpapersTask();
 			}
 		};
 	}
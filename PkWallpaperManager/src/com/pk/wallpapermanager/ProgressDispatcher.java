@@ -0,0 +1,140 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.pk.wallpapermanager;
+
+import java.util.concurrent.Executor;
+
+import android.os.SystemClock;
+
+/**
+ * Throttles download progress before it reaches any listener.
+ * <p>
+ * Progress is only passed on when the percentage changes or when the 
+ * configured interval has passed, whichever comes first. Updates are 
+ * delivered on an executor so the I/O thread never runs listener code, 
+ * and updates arriving while one is still waiting to be delivered are 
+ * merged into it.
+ */
+abstract class ProgressDispatcher implements WallpaperDownloader.ProgressListener
+{
+	private final Executor mExecutor;
+	private final long mInterval;
+	
+	// Last progress passed on
+	private int mLastProgress;
+	private long mLastTime;
+	
+	// Latest values reported, delivered or not
+	private long mLatestDownloaded;
+	private long mLatestTotal;
+	
+	// Latest values waiting to be delivered
+	private long mDownloaded;
+	private long mTotal;
+	private boolean mPending;
+	
+	public ProgressDispatcher(Executor executor, long interval)
+	{
+		this.mExecutor = executor;
+		this.mInterval = interval;
+		this.mLastProgress = -1;
+		this.mLastTime = 0;
+		this.mPending = false;
+	}
+	
+	@Override
+	public void onProgress(long downloaded, long total)
+	{
+		long now = SystemClock.elapsedRealtime();
+		int progress = getProgress(downloaded, total);
+		
+		synchronized(this) {
+			mLatestDownloaded = downloaded;
+			mLatestTotal = total;
+			
+			if(progress == mLastProgress && now - mLastTime < mInterval)
+				return;
+			
+			mLastProgress = progress;
+			mLastTime = now;
+			post(downloaded, total);
+		}
+	}
+	
+	/**
+	 * Passes on the latest progress reported regardless of the 
+	 * throttle. Use this once the transfer is done so the final 
+	 * update is never swallowed.
+	 */
+	public void flush()
+	{
+		synchronized(this) {
+			mLastProgress = getProgress(mLatestDownloaded, mLatestTotal);
+			mLastTime = SystemClock.elapsedRealtime();
+			post(mLatestDownloaded, mLatestTotal);
+		}
+	}
+	
+	/**
+	 * Called on the executor with the latest progress.
+	 * 
+	 * @param progress	Percentage out of {@link PkWallpaperManager#MAX_PROGRESS}.
+	 * @param downloaded
+	 * @param total
+	 */
+	protected abstract void onProgressChanged(int progress, long downloaded, long total);
+	
+	public static int getProgress(long downloaded, long total)
+	{
+		return total > 0 ? (int) ((downloaded * PkWallpaperManager.MAX_PROGRESS) / total) : 0;
+	}
+	
+	private void post(long downloaded, long total)
+	{
+		mDownloaded = downloaded;
+		mTotal = total;
+		
+		// Whatever is waiting to be delivered will pick up the new values
+		if(!mPending) {
+			mPending = true;
+			mExecutor.execute(mDelivery);
+		}
+	}
+	
+	private final Runnable mDelivery = new Runnable() {
+		@Override
+		public void run() {
+			long downloaded;
+			long total;
+			
+			synchronized(ProgressDispatcher.this) {
+				downloaded = mDownloaded;
+				total = mTotal;
+				mPending = false;
+			}
+			
+			onProgressChanged(getProgress(downloaded, total), downloaded, total);
+		}
+	};
+}
@@ -0,0 +1,162 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.pk.wallpapermanager;
+
+import java.util.Random;
+
+/**
+ * Decides when the cloud wallpapers are due for a refresh.
+ * <p>
+ * Loaded wallpapers stay fresh for the TTL in settings. Refreshes are 
+ * never closer together than the minimum interval, and failures back 
+ * off exponentially up to a limit. Every delay is spread by a random 
+ * jitter so many devices don't hit the server in lockstep.
+ * <p>
+ * Times are in milliseconds on the clock passed in by the caller.
+ */
+class RefreshScheduler
+{
+	private final Random mRandom;
+	
+	private WallpaperSettings mSettings;
+	
+	// When the loaded wallpapers go stale, 0 if nothing was loaded yet
+	private long mExpiresAt;
+	
+	// No refresh may start before this
+	private long mNotBefore;
+	
+	private int mFailures;
+	
+	public RefreshScheduler(WallpaperSettings settings)
+	{
+		this.mRandom = new Random();
+		this.mSettings = settings;
+		this.mExpiresAt = 0;
+		this.mNotBefore = 0;
+		this.mFailures = 0;
+	}
+	
+	/**
+	 * Applies new settings. Whatever was loaded may have come from 
+	 * another server, so it's due for a refresh right away.
+	 * 
+	 * @param settings
+	 */
+	public synchronized void setSettings(WallpaperSettings settings)
+	{
+		this.mSettings = settings;
+		this.mExpiresAt = 0;
+		this.mNotBefore = 0;
+		this.mFailures = 0;
+	}
+	
+	/**
+	 * Returns whether a refresh should be sent now. Forced refreshes 
+	 * skip the TTL but still respect the minimum interval and backoff.
+	 * 
+	 * @param now
+	 * @param force
+	 * @return
+	 */
+	public synchronized boolean shouldRefresh(long now, boolean force)
+	{
+		if(now < mNotBefore)
+			return false;
+		
+		return force || !isFresh(now);
+	}
+	
+	/**
+	 * Returns whether the loaded wallpapers are still within their TTL.
+	 * 
+	 * @param now
+	 * @return
+	 */
+	public synchronized boolean isFresh(long now)
+	{
+		return mExpiresAt > 0 && now < mExpiresAt;
+	}
+	
+	/**
+	 * Records a successful refresh.
+	 * 
+	 * @param now
+	 */
+	public synchronized void onSuccess(long now)
+	{
+		mFailures = 0;
+		mExpiresAt = now + jitter(mSettings.getRefreshTTL());
+		mNotBefore = now + mSettings.getMinRefreshInterval();
+	}
+	
+	/**
+	 * Records a failed refresh and backs off.
+	 * 
+	 * @param now
+	 */
+	public synchronized void onFailure(long now)
+	{
+		mFailures++;
+		
+		// Double the wait on every consecutive failure, without overflowing
+		long backoff = mSettings.getRefreshBackoff() << Math.min(mFailures - 1, 30);
+		if(backoff <= 0 || backoff > mSettings.getMaxRefreshBackoff())
+			backoff = mSettings.getMaxRefreshBackoff();
+		
+		mNotBefore = now + Math.max(jitter(backoff), mSettings.getMinRefreshInterval());
+	}
+	
+	/**
+	 * Time left until a refresh is due, taking backoff into account.
+	 * 
+	 * @param now
+	 * @return	0 if one is due now.
+	 */
+	public synchronized long getRefreshDelay(long now)
+	{
+		long due = Math.max(mExpiresAt, mNotBefore);
+		return Math.max(due - now, 0);
+	}
+	
+	/** Number of consecutive failed refreshes. */
+	public synchronized int getFailureCount()
+	{
+		return mFailures;
+	}
+	
+	/**
+	 * Spreads the delay passed by up to the jitter fraction either way.
+	 */
+	private long jitter(long delay)
+	{
+		float jitter = mSettings.getRefreshJitter();
+		if(jitter <= 0 || delay <= 0)
+			return delay;
+		
+		double factor = 1 + jitter * (mRandom.nextDouble() * 2 - 1);
+		return (long) (delay * factor);
+	}
+}
@@ -0,0 +1,257 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.pk.wallpapermanager;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import android.content.Context;
+import android.content.res.Resources;
+
+/**
+ * Drawable IDs of the local wallpapers and their thumbnails.
+ * <p>
+ * Resolving a drawable by name is a slow string lookup, so the IDs are 
+ * resolved once per app version, in parallel on first run, and kept on 
+ * disk. Later launches read them back without resolving anything.
+ */
+class ResourceIndex
+{
+	// File format
+	private static final int MAGIC = 0x504B5249; // "PKRI"
+	private static final int FORMAT_VERSION = 2;
+	private static final String FILE_NAME = "resources.index";
+	
+	private static final String RESOURCE_TYPE = "drawable";
+	
+	// Not worth a thread for fewer names than this
+	private static final int MIN_NAMES_PER_THREAD = 32;
+	
+	private final Resources mResources;
+	private final File mFile;
+	private final File mTempFile;
+	private final int mAppVersion;
+	private final long mAppUpdateTime;
+	
+	public ResourceIndex(Context context)
+	{
+		this.mResources = context.getResources();
+		this.mFile = new File(context.getFilesDir(), FILE_NAME);
+		this.mTempFile = new File(context.getFilesDir(), FILE_NAME + ".tmp");
+		this.mAppVersion = CatalogSnapshot.getAppVersion(context);
+		this.mAppUpdateTime = CatalogSnapshot.getAppUpdateTime(context);
+	}
+	
+	/**
+	 * Returns the drawable IDs for the names passed, two per name: the 
+	 * full drawable at 2 * i and its thumbnail at 2 * i + 1. Missing 
+	 * drawables are 0.
+	 * 
+	 * @param packageName
+	 * @param names
+	 * @param thumbSuffix
+	 * @return	The IDs, or null if the thread was interrupted before 
+	 * 			every name was resolved.
+	 */
+	public synchronized int[] resolve(String packageName, String[] names, String thumbSuffix)
+	{
+		int[] ids = null;
+		
+		try {
+			ids = load(packageName, names, thumbSuffix);
+		}
+		catch (IOException e) {
+			// A broken index is no worse than no index at all
+			mFile.delete();
+			e.printStackTrace();
+		}
+		
+		if(ids != null)
+			return ids;
+		
+		// Never save an index with names that were never looked up
+		ids = resolveAll(packageName, names, thumbSuffix);
+		if(ids == null)
+			return null;
+		
+		try {
+			save(packageName, names, thumbSuffix, ids);
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+		return ids;
+	}
+	
+	/**
+	 * Deletes the index from disk.
+	 */
+	public synchronized void clear()
+	{
+		mFile.delete();
+		mTempFile.delete();
+	}
+	
+	/**
+	 * Resolves every name, split across one thread per core. Returns 
+	 * null if interrupted.
+	 */
+	private int[] resolveAll(final String packageName, final String[] names, final String thumbSuffix)
+	{
+		final int[] ids = new int[names.length * 2];
+		int threads = Math.min(Runtime.getRuntime().availableProcessors(), names.length / MIN_NAMES_PER_THREAD);
+		
+		if(threads <= 1) {
+			resolveRange(packageName, names, thumbSuffix, ids, 0, 1);
+			return ids;
+		}
+		
+		// Each thread takes every nth name and writes only its own slots
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<?>> results = new ArrayList<Future<?>>(threads);
+		for(int thread = 0; thread < threads; thread++) {
+			final int first = thread;
+			final int step = threads;
+			results.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					resolveRange(packageName, names, thumbSuffix, ids, first, step);
+				}
+			}));
+		}
+		
+		try {
+			for(Future<?> result : results) {
+				result.get();
+			}
+		}
+		catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		finally {
+			executor.shutdown();
+		}
+		
+		return ids;
+	}
+	
+	private void resolveRange(String packageName, String[] names, String thumbSuffix, int[] ids, int first, int step)
+	{
+		for(int index = first; index < names.length; index += step) {
+			int res = mResources.getIdentifier(names[index], RESOURCE_TYPE, packageName);
+			ids[index * 2] = res;
+			
+			// No point looking for a thumbnail without a wallpaper
+			if(res != 0)
+				ids[index * 2 + 1] = mResources.getIdentifier(names[index] + thumbSuffix, RESOURCE_TYPE, packageName);
+		}
+	}
+	
+	private int[] load(String packageName, String[] names, String thumbSuffix) throws IOException
+	{
+		if(!mFile.exists())
+			return null;
+		
+		// Pull the whole file in with one read
+		byte[] data;
+		RandomAccessFile file = new RandomAccessFile(mFile, "r");
+		try {
+			data = new byte[(int) file.length()];
+			file.readFully(data);
+		}
+		finally {
+			file.close();
+		}
+		
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+		if(input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION)
+			return null;
+		
+		// IDs change between builds, even ones sharing a version code
+		if(input.readInt() != mAppVersion || input.readLong() != mAppUpdateTime)
+			return null;
+		
+		// Only valid for the exact same names
+		if(!input.readUTF().equals(packageName) || !input.readUTF().equals(thumbSuffix) || input.readInt() != names.length)
+			return null;
+		
+		int[] ids = new int[names.length * 2];
+		for(int index = 0; index < names.length; index++) {
+			if(!input.readUTF().equals(names[index]))
+				return null;
+			
+			ids[index * 2] = input.readInt();
+			ids[index * 2 + 1] = input.readInt();
+		}
+		
+		return ids;
+	}
+	
+	private void save(String packageName, String[] names, String thumbSuffix, int[] ids) throws IOException
+	{
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mTempFile), 8192));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(FORMAT_VERSION);
+			output.writeInt(mAppVersion);
+			output.writeLong(mAppUpdateTime);
+			output.writeUTF(packageName);
+			output.writeUTF(thumbSuffix);
+			output.writeInt(names.length);
+			
+			for(int index = 0; index < names.length; index++) {
+				output.writeUTF(names[index]);
+				output.writeInt(ids[index * 2]);
+				output.writeInt(ids[index * 2 + 1]);
+			}
+		}
+		finally {
+			output.close();
+		}
+		
+		if(!mTempFile.renameTo(mFile)) {
+			mTempFile.delete();
+			throw new IOException("Unable to replace resource index");
+		}
+	}
+}
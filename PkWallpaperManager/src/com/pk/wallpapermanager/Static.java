@@ -26,20 +26,19 @@ package com.pk.wallpapermanager;
 
 import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLConnection;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.media.MediaScannerConnection;
 import android.os.AsyncTask;
 import android.os.Environment;
+import android.util.DisplayMetrics;
 
 /** Static Functions - Do not require instance */
 class Static
@@ -60,12 +59,11 @@ class Static
 	{
 		android.app.WallpaperManager wallManager = android.app.WallpaperManager.getInstance(context);
 		
+		// Nobody is waiting on a bitmap here, stream it straight to the system
 		if(mWall.isLocal())
 			wallManager.setResource(mWall.getFullResource());
-		else {
-			Bitmap bitmap = getBitmapFromURL(mWall.getFullURL());
-			wallManager.setBitmap(bitmap);
-		}
+		else
+			streamWallpaperFromURL(context, getDefaultTransport(context), mWall.getFullURL());
 	}
 	
 	/**
@@ -116,32 +114,14 @@ class Static
 		if(mWall == null || mWall.isLocal()) 
 			return;
 		
-        // Connect to the server
-        URL url = new URL(mWall.getFullURL());
-        URLConnection conection = url.openConnection();
-        conection.connect();
-        InputStream input = new BufferedInputStream(url.openStream(), 8192);
-
-        // Output stream
+        // Output file
         String fileName = mWall.getTitle().length() > 0 ? mWall.getTitle() + mWall.getRelativeFullURL().substring(mWall.getRelativeFullURL().lastIndexOf(".")) : mWall.getRelativeFullURL();
         String saveLoc = saveLocation == null ? Environment.getExternalStorageDirectory().getAbsolutePath() + "/.theme_wallpapers" : saveLocation;
         File file = new File(saveLoc + "/" + fileName);
         file.getParentFile().mkdirs();
-        OutputStream output = new FileOutputStream(file);
         
-        byte data[] = new byte[2048];
-		int count;
-        while ((count = input.read(data)) != -1) {
-            // Writing data to file
-            output.write(data, 0, count);
-        }
-
-        // Flushing output
-        output.flush();
-
-        // Closing streams
-        output.close();
-        input.close();
+        // Single request through the shared connection pool
+        downloadToFile(getDefaultTransport(context), mWall.getFullURL(), file);
         
         // Scan for newly downloaded media
         MediaScannerConnection.scanFile(context, new String[] {file.getAbsolutePath()}, null, null);
@@ -171,20 +151,187 @@ class Static
 		}.execute();
 	}
 	
-	protected static Bitmap getBitmapFromURL(String source)
+	/**
+	 * Downloads and decodes the image at the URL passed, sized 
+	 * for the device's desired wallpaper dimensions.
+	 * 
+	 * @param context
+	 * @param transport
+	 * @param source
+	 * @return
+	 * @throws IOException
+	 */
+	protected static Bitmap getWallpaperBitmap(Context context, WallpaperTransport transport, String source) throws IOException
 	{
+		File file = File.createTempFile("wallpaper", null);
+		
 		try {
-	        URL url = new URL(source);
-	        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-	        connection.setDoInput(true);
-	        connection.connect();
-	        InputStream input = connection.getInputStream();
-	        Bitmap myBitmap = BitmapFactory.decodeStream(input);
-	        return myBitmap;
-	    }
+			downloadToFile(transport, source, file);
+			return getWallpaperBitmap(context, file);
+		}
+		finally {
+			file.delete();
+		}
+	}
+	
+	/**
+	 * Decodes the image file passed, sized for the device's 
+	 * desired wallpaper dimensions.
+	 * 
+	 * @param context
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	protected static Bitmap getWallpaperBitmap(Context context, File file) throws IOException
+	{
+		android.app.WallpaperManager wallManager = android.app.WallpaperManager.getInstance(context);
+		int width = wallManager.getDesiredMinimumWidth();
+		int height = wallManager.getDesiredMinimumHeight();
+		
+		// Fall back to the screen size if the launcher didn't ask for anything
+		if(width <= 0 || height <= 0) {
+			DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+			width = metrics.widthPixels;
+			height = metrics.heightPixels;
+		}
+		
+		return BitmapDecoder.decodeFile(file, width, height);
+	}
+	
+	/**
+	 * Sets the system wallpaper by piping the HTTP response straight 
+	 * into the system WallpaperManager, without decoding it here.
+	 * 
+	 * @param context
+	 * @param transport
+	 * @param source
+	 * @throws IOException
+	 */
+	protected static void streamWallpaperFromURL(Context context, WallpaperTransport transport, String source) throws IOException
+	{
+		WallpaperTransport.Response response = openResponse(transport, source);
+		Runnable abort = Cancellation.register(response);
+		boolean finished = false;
+		
+		try {
+			InputStream input = new BufferedInputStream(response.getContent(), 8192);
+			android.app.WallpaperManager.getInstance(context).setStream(input);
+			finished = true;
+		}
 		catch (IOException e) {
-	        e.printStackTrace();
-	        return null;
-	    }
+			Cancellation.throwIfCancelled("setting wallpaper from " + source);
+			throw e;
+		}
+		finally {
+			Cancellation.unregister(abort);
+			
+			if(finished)
+				response.close();
+			else
+				response.abort();
+		}
+	}
+	
+	/**
+	 * Sets the system wallpaper by piping the file passed straight 
+	 * into the system WallpaperManager, without decoding it here.
+	 * 
+	 * @param context
+	 * @param file
+	 * @throws IOException
+	 */
+	protected static void streamWallpaperFromFile(Context context, File file) throws IOException
+	{
+		InputStream input = new BufferedInputStream(new FileInputStream(file), 8192);
+		try {
+			android.app.WallpaperManager.getInstance(context).setStream(input);
+		}
+		finally {
+			input.close();
+		}
+	}
+	
+	/**
+	 * Downloads the URL passed into the file passed. If the work 
+	 * is cancelled, the file is deleted and this stops right away.
+	 * 
+	 * @param transport
+	 * @param source
+	 * @param file
+	 * @throws IOException
+	 */
+	protected static void downloadToFile(WallpaperTransport transport, String source, File file) throws IOException
+	{
+		WallpaperTransport.Response response = openResponse(transport, source);
+		Runnable abort = Cancellation.register(response);
+		boolean finished = false;
+		
+		try {
+			InputStream input = new BufferedInputStream(response.getContent(), 8192);
+			OutputStream output = new FileOutputStream(file);
+			try {
+				byte data[] = new byte[8192];
+				int count;
+				while ((count = input.read(data)) != -1) {
+					Cancellation.throwIfCancelled("downloading " + source);
+					output.write(data, 0, count);
+				}
+			}
+			finally {
+				output.close();
+			}
+			
+			finished = true;
+		}
+		catch (IOException e) {
+			if(Cancellation.isCancelled()) {
+				file.delete();
+				throw new InterruptedIOException("Cancelled downloading " + source);
+			}
+			
+			throw e;
+		}
+		finally {
+			Cancellation.unregister(abort);
+			
+			if(finished)
+				response.close();
+			else
+				response.abort();
+		}
+	}
+	
+	/**
+	 * Sends a GET for the URL passed and fails on anything 
+	 * but a successful response.
+	 * 
+	 * @param transport
+	 * @param source
+	 * @return
+	 * @throws IOException
+	 */
+	private static WallpaperTransport.Response openResponse(WallpaperTransport transport, String source) throws IOException
+	{
+		WallpaperTransport.Response response = transport.get(source, null);
+		int status = response.getStatusCode();
+		if(status >= 300) {
+			response.abort();
+			throw new IOException("Server returned " + status + " " + response.getReasonPhrase() + " for " + source);
+		}
+		
+		return response;
+	}
+	
+	/**
+	 * Transport used by the static helpers, the same one the manager 
+	 * instance uses so there is only ever one connection pool.
+	 * 
+	 * @param context
+	 * @return
+	 */
+	protected static WallpaperTransport getDefaultTransport(Context context)
+	{
+		return PkWallpaperManager.getInstance(context).getTransport();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,463 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.pk.wallpapermanager;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+
+/**
+ * Two-tier thumbnail cache.
+ * <p>
+ * Decoded bitmaps are kept in a memory LRU bounded by byte size, and 
+ * downloaded thumbnails are kept in a disk cache bounded by a size quota. 
+ * Concurrent requests for the same thumbnail share a single fetch.
+ */
+public class ThumbnailCache
+{
+	private static final String TEMP_SUFFIX = ".tmp";
+	
+	// Shared connection pool
+	private final WallpaperTransport mTransport;
+	
+	// Memory tier, sized by bitmap bytes
+	private final LruCache<String, Bitmap> mMemoryCache;
+	
+	// Disk tier
+	private final File mDirectory;
+	private final long mDiskCacheSize;
+	private long mDiskUsage;
+	
+	// Loads currently in progress, keyed by URL
+	private final ConcurrentHashMap<String, FutureTask<Bitmap>> mInFlight;
+	
+	// Statistics
+	private final AtomicInteger mDiskHits;
+	private final AtomicInteger mDiskEvictions;
+	private final AtomicInteger mNetworkFetches;
+	private final AtomicInteger mSharedFetches;
+	
+	private int mByteBuffer;
+	
+	public ThumbnailCache(WallpaperTransport transport, File directory, int memoryCacheSize, long diskCacheSize)
+	{
+		this.mTransport = transport;
+		this.mMemoryCache = new LruCache<String, Bitmap>(memoryCacheSize) {
+			@Override
+			protected int sizeOf(String key, Bitmap bitmap) {
+				return bitmap.getByteCount();
+			}
+		};
+		this.mDirectory = directory;
+		this.mDiskCacheSize = diskCacheSize;
+		this.mInFlight = new ConcurrentHashMap<String, FutureTask<Bitmap>>();
+		this.mDiskHits = new AtomicInteger();
+		this.mDiskEvictions = new AtomicInteger();
+		this.mNetworkFetches = new AtomicInteger();
+		this.mSharedFetches = new AtomicInteger();
+		this.mByteBuffer = 8192;
+		this.initDiskCache();
+	}
+	
+	/**
+	 * Returns the thumbnail for the URL passed, loading it from 
+	 * memory, disk or the network in that order. If another thread 
+	 * is already loading the same URL, this waits for its result 
+	 * instead of fetching it again.
+	 * <p>
+	 * Note: Do NOT call this from the main UI thread!
+	 * 
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
+	public Bitmap get(final String url) throws IOException
+	{
+		Bitmap bitmap = mMemoryCache.get(url);
+		if(bitmap != null)
+			return bitmap;
+		
+		FutureTask<Bitmap> task = new FutureTask<Bitmap>(new Callable<Bitmap>() {
+			@Override
+			public Bitmap call() throws Exception {
+				return load(url);
+			}
+		});
+		
+		FutureTask<Bitmap> running = mInFlight.putIfAbsent(url, task);
+		if(running == null) {
+			// We're the first ones here, do the work ourselves
+			try {
+				task.run();
+			}
+			finally {
+				mInFlight.remove(url, task);
+			}
+		}
+		else {
+			mSharedFetches.incrementAndGet();
+			task = running;
+		}
+		
+		try {
+			return task.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading " + url);
+		}
+		catch (ExecutionException e) {
+			// Whoever was loading this got cancelled, that doesn't mean we were
+			if(e.getCause() instanceof InterruptedIOException && running != null && !Thread.currentThread().isInterrupted())
+				return get(url);
+			
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			
+			throw new IOException("Unable to load " + url + ": " + e.getCause());
+		}
+	}
+	
+	/**
+	 * Returns the thumbnail if it's already decoded in memory, 
+	 * null otherwise. Safe to call from the main UI thread.
+	 * 
+	 * @param url
+	 * @return
+	 */
+	public Bitmap getCached(String url)
+	{
+		return mMemoryCache.get(url);
+	}
+	
+	/**
+	 * Adds a decoded bitmap to the memory cache.
+	 * 
+	 * @param key
+	 * @param bitmap
+	 */
+	public void put(String key, Bitmap bitmap)
+	{
+		if(key != null && bitmap != null)
+			mMemoryCache.put(key, bitmap);
+	}
+	
+	/**
+	 * Drops all decoded bitmaps from memory.
+	 */
+	public void clearMemory()
+	{
+		mMemoryCache.evictAll();
+	}
+	
+	/**
+	 * Drops all thumbnails from memory and disk.
+	 */
+	public synchronized void clear()
+	{
+		clearMemory();
+		
+		File[] files = mDirectory.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				file.delete();
+			}
+		}
+		mDiskUsage = 0;
+	}
+	
+	public void setByteBuffer(int byteBuffer)
+	{
+		this.mByteBuffer = byteBuffer;
+	}
+	
+	/** Number of requests served from the memory cache. */
+	public int getMemoryHitCount()
+	{
+		return mMemoryCache.hitCount();
+	}
+	
+	/** Number of requests served from the disk cache. */
+	public int getDiskHitCount()
+	{
+		return mDiskHits.get();
+	}
+	
+	/** Number of requests that missed the memory cache. */
+	public int getMissCount()
+	{
+		return mMemoryCache.missCount();
+	}
+	
+	/** Number of bitmaps evicted from memory to stay within budget. */
+	public int getMemoryEvictionCount()
+	{
+		return mMemoryCache.evictionCount();
+	}
+	
+	/** Number of files evicted from disk to stay within quota. */
+	public int getDiskEvictionCount()
+	{
+		return mDiskEvictions.get();
+	}
+	
+	/** Number of thumbnails fetched from the network. */
+	public int getNetworkFetchCount()
+	{
+		return mNetworkFetches.get();
+	}
+	
+	/** Number of requests that joined a fetch already in progress. */
+	public int getSharedFetchCount()
+	{
+		return mSharedFetches.get();
+	}
+	
+	/** Bytes currently used by decoded bitmaps. */
+	public int getMemoryUsage()
+	{
+		return mMemoryCache.size();
+	}
+	
+	/** Bytes currently used on disk. */
+	public synchronized long getDiskUsage()
+	{
+		return mDiskUsage;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		
+		builder.append("Memory Usage: " + getMemoryUsage() + "/" + mMemoryCache.maxSize() + "\n");
+		builder.append("Disk Usage: " + getDiskUsage() + "/" + mDiskCacheSize + "\n");
+		builder.append("Memory Hits: " + getMemoryHitCount() + "\n");
+		builder.append("Disk Hits: " + getDiskHitCount() + "\n");
+		builder.append("Misses: " + getMissCount() + "\n");
+		builder.append("Network Fetches: " + getNetworkFetchCount() + "\n");
+		builder.append("Shared Fetches: " + getSharedFetchCount() + "\n");
+		builder.append("Memory Evictions: " + getMemoryEvictionCount() + "\n");
+		builder.append("Disk Evictions: " + getDiskEvictionCount() + "\n");
+		
+		return builder.toString();
+	}
+	
+	/**
+	 * Loads a thumbnail from disk, or from the network if it's not 
+	 * on disk yet, and adds it to the memory cache.
+	 */
+	private Bitmap load(String url) throws IOException
+	{
+		File file = getFile(url);
+		
+		if(file.exists()) {
+			mDiskHits.incrementAndGet();
+			
+			// Keep recently used files from being evicted first
+			file.setLastModified(System.currentTimeMillis());
+		}
+		else {
+			mNetworkFetches.incrementAndGet();
+			fetch(url, file);
+		}
+		
+		// The file is cached either way, skip the decode if nobody wants it anymore
+		if(Thread.currentThread().isInterrupted())
+			throw new InterruptedIOException("Cancelled loading " + url);
+		
+		Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath());
+		if(bitmap == null) {
+			// Corrupt file, make sure we don't keep serving it
+			removeFile(file);
+			throw new IOException("Unable to decode " + url);
+		}
+		
+		mMemoryCache.put(url, bitmap);
+		return bitmap;
+	}
+	
+	/**
+	 * Downloads the URL into the disk cache.
+	 */
+	private void fetch(String source, File file) throws IOException
+	{
+		File temp = new File(file.getPath() + TEMP_SUFFIX);
+		WallpaperTransport.Response response = mTransport.get(source, null);
+		boolean finished = false;
+		
+		try {
+			if(response.getStatusCode() >= 300)
+				throw new IOException("Server returned " + response.getStatusCode() + " for " + source);
+			
+			InputStream input = new BufferedInputStream(response.getContent(), mByteBuffer);
+			OutputStream output = new FileOutputStream(temp);
+			try {
+				byte data[] = new byte[mByteBuffer];
+				int count;
+				while ((count = input.read(data)) != -1) {
+					if(Thread.currentThread().isInterrupted())
+						throw new InterruptedIOException("Cancelled fetching " + source);
+					
+					output.write(data, 0, count);
+				}
+			}
+			finally {
+				output.close();
+			}
+			
+			finished = true;
+		}
+		finally {
+			if(finished) {
+				response.close();
+			}
+			else {
+				response.abort();
+				temp.delete();
+			}
+		}
+		
+		if(!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Unable to cache " + source);
+		}
+		
+		addFile(file);
+	}
+	
+	/**
+	 * Measures what's already on disk and trims it to the quota.
+	 */
+	private synchronized void initDiskCache()
+	{
+		mDirectory.mkdirs();
+		mDiskUsage = 0;
+		
+		File[] files = mDirectory.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				if(file.getName().endsWith(TEMP_SUFFIX))
+					file.delete();
+				else
+					mDiskUsage += file.length();
+			}
+		}
+		
+		trimDiskCache();
+	}
+	
+	private synchronized void addFile(File file)
+	{
+		mDiskUsage += file.length();
+		trimDiskCache();
+	}
+	
+	private synchronized void removeFile(File file)
+	{
+		long length = file.length();
+		if(file.delete())
+			mDiskUsage -= length;
+	}
+	
+	/**
+	 * Deletes the least recently used files until the disk 
+	 * cache fits within its quota again.
+	 */
+	private synchronized void trimDiskCache()
+	{
+		if(mDiskUsage <= mDiskCacheSize)
+			return;
+		
+		File[] files = mDirectory.listFiles();
+		if(files == null) {
+			mDiskUsage = 0;
+			return;
+		}
+		
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				long left = lhs.lastModified();
+				long right = rhs.lastModified();
+				return left < right ? -1 : (left == right ? 0 : 1);
+			}
+		});
+		
+		for(int index = 0; index < files.length && mDiskUsage > mDiskCacheSize; index++) {
+			if(files[index].getName().endsWith(TEMP_SUFFIX))
+				continue;
+			
+			removeFile(files[index]);
+			mDiskEvictions.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Disk cache file for the URL passed, named after its hash.
+	 */
+	private File getFile(String url)
+	{
+		return new File(mDirectory, hashKey(url));
+	}
+	
+	private static String hashKey(String key)
+	{
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			byte[] hash = digest.digest(key.getBytes("UTF-8"));
+			
+			StringBuilder builder = new StringBuilder(hash.length * 2);
+			for(byte b : hash) {
+				builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+				builder.append(Character.forDigit(b & 0xF, 16));
+			}
+			
+			return builder.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			return String.valueOf(key.hashCode());
+		}
+		catch (UnsupportedEncodingException e) {
+			return String.valueOf(key.hashCode());
+		}
+	}
+}
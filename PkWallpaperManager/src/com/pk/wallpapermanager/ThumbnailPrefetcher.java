@@ -0,0 +1,356 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.pk.wallpapermanager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+
+/**
+ * Loads thumbnails ahead of the scroll position so they're already 
+ * in the thumbnail cache by the time they're shown.
+ * <p>
+ * Report the visible range of positions in {@link PkWallpaperManager#getWallpapers()} 
+ * whenever it changes, for example from an AbsListView.OnScrollListener. The 
+ * thumbnails just past the edge you're scrolling towards are then loaded in 
+ * the background, nearest first. Anything that falls out of the window is 
+ * cancelled, including downloads and decodes that already started.
+ * <p>
+ * How far ahead to load is adapted to how fast you scroll and how long 
+ * thumbnails take to load, between the min and max prefetch depth in settings.
+ */
+public class ThumbnailPrefetcher
+{
+	// Weight given to each new sample in the moving averages
+	private static final double SMOOTHING = 0.25;
+	
+	// Load this many times the thumbnails expected to scroll in during one load
+	private static final double SAFETY_FACTOR = 2.0;
+	
+	// Pauses longer than this start a new scroll instead of slowing the last one
+	private static final long SCROLL_TIMEOUT = 1000;
+	
+	private final PkWallpaperManager mManager;
+	private final ThreadPoolExecutor mExecutor;
+	
+	// Pending and running loads
+	private final Map<Wallpaper, PrefetchTask> mTasks;
+	
+	// Last reported visible range
+	private int mFirst;
+	private int mLast;
+	private int mDirection;
+	private long mLastUpdate;
+	
+	// Moving averages in positions per ms and ms per thumbnail
+	private double mVelocity;
+	private volatile double mLatency;
+	
+	private int mDepth;
+	
+	private final AtomicInteger mLoaded;
+	private final AtomicInteger mCancelled;
+	private final AtomicInteger mFailed;
+	
+	public ThumbnailPrefetcher(PkWallpaperManager manager)
+	{
+		WallpaperSettings settings = manager.getSettings();
+		int threads = Math.max(1, settings.getPrefetchThreads());
+		
+		this.mManager = manager;
+		this.mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger mCount = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ThumbnailPrefetcher #" + mCount.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		this.mExecutor.allowCoreThreadTimeOut(true);
+		this.mTasks = new IdentityHashMap<Wallpaper, PrefetchTask>();
+		this.mFirst = -1;
+		this.mLast = -1;
+		this.mDirection = 1;
+		this.mLastUpdate = 0;
+		this.mVelocity = 0;
+		this.mLatency = 0;
+		this.mDepth = settings.getMinPrefetchDepth();
+		this.mLoaded = new AtomicInteger();
+		this.mCancelled = new AtomicInteger();
+		this.mFailed = new AtomicInteger();
+	}
+	
+	/**
+	 * Call this whenever the visible positions change. Positions are 
+	 * indexes into {@link PkWallpaperManager#getWallpapers()}, both inclusive.
+	 * <p>
+	 * Safe to call from the main UI thread, nothing is loaded here.
+	 * 
+	 * @param first
+	 * @param last
+	 */
+	public synchronized void onVisibleRangeChanged(int first, int last)
+	{
+		List<Wallpaper> wallpapers = mManager.getWallpapers();
+		int size = wallpapers.size();
+		if(size == 0 || last < first || last < 0 || first >= size) {
+			cancelAll();
+			return;
+		}
+		
+		first = Math.max(0, first);
+		last = Math.min(size - 1, last);
+		
+		long now = SystemClock.uptimeMillis();
+		updateVelocity(first, now);
+		
+		if(mFirst >= 0 && first != mFirst)
+			mDirection = first > mFirst ? 1 : -1;
+		else if(mLast >= 0 && last != mLast)
+			mDirection = last > mLast ? 1 : -1;
+		
+		mFirst = first;
+		mLast = last;
+		mLastUpdate = now;
+		mDepth = computeDepth();
+		
+		// Everything visible or up to the depth ahead stays, the rest goes
+		List<Wallpaper> ahead = new ArrayList<Wallpaper>(mDepth);
+		for(int i = 1; i <= mDepth; i++) {
+			int position = mDirection > 0 ? last + i : first - i;
+			if(position < 0 || position >= size)
+				break;
+			
+			ahead.add(wallpapers.get(position));
+		}
+		
+		Map<Wallpaper, Boolean> window = new IdentityHashMap<Wallpaper, Boolean>();
+		for(int i = first; i <= last; i++)
+			window.put(wallpapers.get(i), Boolean.TRUE);
+		for(Wallpaper mWall : ahead)
+			window.put(mWall, Boolean.TRUE);
+		
+		boolean cancelled = false;
+		Iterator<Map.Entry<Wallpaper, PrefetchTask>> iterator = mTasks.entrySet().iterator();
+		while(iterator.hasNext()) {
+			Map.Entry<Wallpaper, PrefetchTask> entry = iterator.next();
+			if(!window.containsKey(entry.getKey())) {
+				iterator.remove();
+				entry.getValue().cancel(true);
+				cancelled = true;
+			}
+		}
+		
+		// Drop cancelled tasks from the queue so new ones don't wait behind them
+		if(cancelled)
+			mExecutor.purge();
+		
+		// Nearest first, the queue keeps them in this order
+		for(Wallpaper mWall : ahead) {
+			if(mTasks.containsKey(mWall))
+				continue;
+			
+			// Memory only, a missing cache is left for the task to create off this thread
+			if(mManager.getCachedThumbnail(mWall) != null)
+				continue;
+			
+			PrefetchTask task = new PrefetchTask(mWall);
+			mTasks.put(mWall, task);
+			mExecutor.execute(task);
+		}
+	}
+	
+	/**
+	 * Cancels every pending and running load and forgets 
+	 * the last visible range. Call this when the list goes away.
+	 */
+	public synchronized void cancelAll()
+	{
+		for(PrefetchTask task : mTasks.values())
+			task.cancel(true);
+		
+		mTasks.clear();
+		mExecutor.purge();
+		mFirst = -1;
+		mLast = -1;
+		mVelocity = 0;
+	}
+	
+	/**
+	 * Cancels everything and stops the worker threads. 
+	 * This prefetcher can't be used afterwards.
+	 */
+	public synchronized void shutdown()
+	{
+		cancelAll();
+		mExecutor.shutdownNow();
+	}
+	
+	/**
+	 * Returns how many positions past the visible range are currently loaded ahead.
+	 * 
+	 * @return
+	 */
+	public synchronized int getDepth()
+	{
+		return mDepth;
+	}
+	
+	/**
+	 * Returns the average time in milliseconds a prefetched 
+	 * thumbnail took to load, 0 before the first one finished.
+	 * 
+	 * @return
+	 */
+	public double getLatency()
+	{
+		return mLatency;
+	}
+	
+	/**
+	 * Returns the number of loads waiting or running right now.
+	 * 
+	 * @return
+	 */
+	public synchronized int getPendingCount()
+	{
+		return mTasks.size();
+	}
+	
+	public int getLoadedCount()
+	{
+		return mLoaded.get();
+	}
+	
+	public int getCancelledCount()
+	{
+		return mCancelled.get();
+	}
+	
+	public int getFailedCount()
+	{
+		return mFailed.get();
+	}
+	
+	@Override
+	public synchronized String toString()
+	{
+		return "ThumbnailPrefetcher [range=" + mFirst + "-" + mLast + ", direction=" + mDirection + ", depth=" + mDepth 
+			+ ", latency=" + Math.round(mLatency) + "ms, pending=" + mTasks.size() + ", loaded=" + mLoaded.get() 
+			+ ", cancelled=" + mCancelled.get() + ", failed=" + mFailed.get() + "]";
+	}
+	
+	private void updateVelocity(int first, long now)
+	{
+		long elapsed = now - mLastUpdate;
+		if(mFirst < 0 || elapsed > SCROLL_TIMEOUT) {
+			mVelocity = 0;
+			return;
+		}
+		if(elapsed <= 0)
+			return;
+		
+		double velocity = (double) Math.abs(first - mFirst) / elapsed;
+		mVelocity += SMOOTHING * (velocity - mVelocity);
+	}
+	
+	/**
+	 * Enough positions to cover what scrolls into view while one 
+	 * thumbnail loads, with some margin, within the limits in settings.
+	 */
+	private int computeDepth()
+	{
+		WallpaperSettings settings = mManager.getSettings();
+		int min = settings.getMinPrefetchDepth();
+		int max = Math.max(min, settings.getMaxPrefetchDepth());
+		
+		int depth = (int) Math.ceil(mVelocity * mLatency * SAFETY_FACTOR);
+		return Math.max(min, Math.min(max, depth));
+	}
+	
+	private void recordLatency(long elapsed)
+	{
+		synchronized(this) {
+			mLatency = mLatency == 0 ? elapsed : mLatency + SMOOTHING * (elapsed - mLatency);
+		}
+	}
+	
+	private class PrefetchTask extends FutureTask<Bitmap>
+	{
+		private final Wallpaper mWall;
+		
+		public PrefetchTask(final Wallpaper wall)
+		{
+			super(new Callable<Bitmap>() {
+				@Override
+				public Bitmap call() throws Exception {
+					long start = SystemClock.uptimeMillis();
+					
+					try {
+						Bitmap bitmap = mManager.loadThumbnail(wall);
+						recordLatency(SystemClock.uptimeMillis() - start);
+						mLoaded.incrementAndGet();
+						return bitmap;
+					}
+					catch (IOException e) {
+						// Cancelled loads are counted once the task is done
+						if(!Thread.currentThread().isInterrupted())
+							mFailed.incrementAndGet();
+						throw e;
+					}
+				}
+			});
+			this.mWall = wall;
+		}
+		
+		@Override
+		protected void done()
+		{
+			if(isCancelled())
+				mCancelled.incrementAndGet();
+			
+			synchronized(ThumbnailPrefetcher.this) {
+				if(mTasks.get(mWall) == this)
+					mTasks.remove(mWall);
+			}
+		}
+	}
+}
@@ -30,12 +30,14 @@ public class Wallpaper {
 	// Source for thumbnail and full wallpaper
 	private String RelativeFullURL;
 	private String RelativeThumbURL;
+	
+	// Set when they can't be built from the URLs, like for local wallpapers, otherwise built on first use
 	private Uri fullUri;
 	private Uri thumbUri;
 	private int fullResource;
 	private int thumbResource;
 	
-	//
+	// Shared by every wallpaper from the same manifest
 	private String pathURL;
 	
 	// Extra (Optional) Properties
@@ -43,6 +45,9 @@ public class Wallpaper {
 	private String byLine;
 	private long fileSize;
 	
+	// SHA-256 of the full wallpaper in lowercase hex, null if the manifest doesn't say
+	private String sha256;
+	
 	// Local or Cloud
 	private boolean Local;
 	
@@ -50,8 +55,8 @@ public class Wallpaper {
 	public Wallpaper() {
 		this.RelativeFullURL = "";
 		this.RelativeThumbURL = "";
-		this.fullUri = Uri.parse("");
-		this.thumbUri = Uri.parse("");
+		this.fullUri = null;
+		this.thumbUri = null;
 		this.fullResource = 0;
 		this.thumbResource = 0;
 		
@@ -60,6 +65,7 @@ public class Wallpaper {
 		this.Title = "";
 		this.byLine = "";
 		this.fileSize = 0;
+		this.sha256 = null;
 		
 		this.Local = false;
 	}
@@ -73,9 +79,12 @@ public class Wallpaper {
 		this.fullResource = fullResource;
 		this.thumbResource = thumbResource;
 		
+		this.pathURL = "";
+		
 		this.Title = Title;
 		this.byLine = byLine;
 		this.fileSize = 0;
+		this.sha256 = null;
 		
 		this.Local = true;
 	}
@@ -89,9 +98,12 @@ public class Wallpaper {
 		this.fullResource = 0;
 		this.thumbResource = 0;
 		
+		this.pathURL = "";
+		
 		this.Title = Title;
 		this.byLine = byLine;
 		this.fileSize = fileSize;
+		this.sha256 = null;
 		
 		this.Local = false;
 	}
@@ -105,9 +117,12 @@ public class Wallpaper {
 		this.fullResource = fullResource;
 		this.thumbResource = thumbResource;
 		
+		this.pathURL = "";
+		
 		this.Title = Title;
 		this.byLine = byLine;
 		this.fileSize = fileSize;
+		this.sha256 = null;
 		
 		this.Local = Local;
 	}
@@ -153,11 +168,19 @@ public class Wallpaper {
 		this.fileSize = fileSize;
 	}
 	
+	public void setSha256(String sha256) {
+		this.sha256 = sha256;
+	}
+	
 	public void setLocal(boolean Local) {
 		this.Local = Local;
 	}
 	
 	/** GETTERS **/
+	public String getPathURL() {
+		return this.pathURL;
+	}
+	
 	public String getFullURL() {
 		return (this.pathURL + this.RelativeFullURL);
 	}
@@ -174,11 +197,26 @@ public class Wallpaper {
 		return this.RelativeThumbURL;
 	}
 	
+	/**
+	 * Returns the Uri set for this wallpaper or, if none was set, 
+	 * builds one from its full URL the first time it's asked for, 
+	 * so large catalogs only pay for the ones actually used.
+	 */
 	public Uri getFullUri() {
+		if(this.fullUri == null)
+			this.fullUri = Uri.parse(getFullURL());
+		
 		return this.fullUri;
 	}
 	
+	/**
+	 * Returns the Uri set for this thumbnail or, if none was set, 
+	 * builds one from its thumbnail URL the first time it's asked for.
+	 */
 	public Uri getThumbUri() {
+		if(this.thumbUri == null)
+			this.thumbUri = Uri.parse(getThumbURL());
+		
 		return this.thumbUri;
 	}
 	
@@ -202,6 +240,10 @@ public class Wallpaper {
 		return this.fileSize;
 	}
 	
+	public String getSha256() {
+		return this.sha256;
+	}
+	
 	public boolean isLocal() {
 		return this.Local;
 	}
@@ -211,14 +253,15 @@ public class Wallpaper {
 		
 		builder.append("Relative Full URL: " + this.RelativeFullURL + "\n");
 		builder.append("Relative Thumb URL: " + this.RelativeThumbURL + "\n");
-		builder.append("Full Uri: " + this.fullUri.toString() + "\n");
-		builder.append("Thumb Uri: " + this.thumbUri.toString() + "\n");
+		builder.append("Full Uri: " + getFullUri() + "\n");
+		builder.append("Thumb Uri: " + getThumbUri() + "\n");
 		builder.append("Full Resource: " + this.fullResource + "\n");
 		builder.append("Thumb Resource: " + this.thumbResource + "\n");
 
 		builder.append("Title: " + this.Title + "\n");
 		builder.append("By Line: " + this.byLine + "\n");
 		builder.append("File Size: " + this.fileSize + "\n");
+		builder.append("SHA-256: " + this.sha256 + "\n");
 		
 		builder.append("Local: " + this.Local + "\n");
 		
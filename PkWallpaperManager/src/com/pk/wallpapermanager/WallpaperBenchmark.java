@@ -0,0 +1,358 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.pk.wallpapermanager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * Measures the library against a {@link LocalWallpaperServer}, meant to 
+ * be run on a device or emulator while tuning it.
+ * <p>
+ * Every benchmark logs its results and returns them as a printable 
+ * report. Timings are the best of a few runs after a warm-up run. 
+ * Do NOT run these on the main UI thread!
+ */
+public class WallpaperBenchmark
+{
+	private static final String LOG_TAG = "WallpaperBenchmark";
+	
+	// Runs thrown away first to warm up the JIT and the connection pool
+	private static final int WARMUP_RUNS = 1;
+	private static final int RUNS = 3;
+	
+	private static final int CONNECT_TIMEOUT = 10000;
+	private static final int READ_TIMEOUT = 60000;
+	private static final int BUFFER_SIZE = 8192;
+	private static final String FILE_PATH = "/wallpapers/full/benchmark.jpg";
+	private static final String WALLPAPER_PATH = "wallpapers";
+	private static final String CHARSET = "UTF-8";
+	
+	// Catalog sizes parsing is measured at unless others are passed
+	private static final int[] CATALOG_SIZES = { 1000, 10000, 100000 };
+	private static final int GC_PASSES = 3;
+	
+	/**
+	 * Downloads a file of the size passed from a local server that 
+	 * delays every response by the latency passed, once over a single 
+	 * connection and once split into the number of segments passed, 
+	 * and reports the throughput of both.
+	 * 
+	 * @param directory	Where to download to. Nothing is left behind.
+	 * @param size	In bytes.
+	 * @param latency	In milliseconds.
+	 * @param bandwidth	Per connection in bytes per second, 0 for no limit.
+	 * @param segments
+	 * @return
+	 * @throws IOException
+	 */
+	public static String benchmarkDownloads(File directory, int size, long latency, long bandwidth, int segments) throws IOException
+	{
+		byte[] content = new byte[size];
+		new Random(size).nextBytes(content);
+		directory.mkdirs();
+		
+		LocalWallpaperServer server = new LocalWallpaperServer();
+		server.addFile(FILE_PATH, content, "image/jpeg");
+		server.setLatency(latency);
+		server.setBandwidth(bandwidth);
+		server.start();
+		
+		// Enough connections for every segment at once
+		HttpTransport transport = new HttpTransport(CONNECT_TIMEOUT, READ_TIMEOUT, Math.max(segments, 1));
+		
+		try {
+			String url = server.getBaseURL() + FILE_PATH;
+			StringBuilder report = new StringBuilder();
+			report.append(String.format(Locale.US, "Downloading %d bytes, %d ms latency, %d bytes/s per connection\n", size, latency, bandwidth));
+			
+			long linear = timeDownload(transport, url, new File(directory, "benchmark_linear.jpg"), 1);
+			report.append(formatThroughput("Single connection", size, linear));
+			
+			long segmented = timeDownload(transport, url, new File(directory, "benchmark_segmented.jpg"), segments);
+			report.append(formatThroughput(segments + " segments", size, segmented));
+			
+			return log(report);
+		}
+		finally {
+			transport.shutdown();
+			server.stop();
+		}
+	}
+	
+	/**
+	 * Returns the best time in nanoseconds it took to download the file.
+	 */
+	private static long timeDownload(WallpaperTransport transport, String url, File file, int segments) throws IOException
+	{
+		long best = Long.MAX_VALUE;
+		
+		for(int run = 0; run < WARMUP_RUNS + RUNS; run++) {
+			WallpaperDownloader downloader = new WallpaperDownloader(transport, url, file);
+			downloader.setByteBuffer(BUFFER_SIZE);
+			if(segments > 1)
+				downloader.setSegments(segments, 0);
+			
+			long start = System.nanoTime();
+			downloader.download();
+			long elapsed = System.nanoTime() - start;
+			file.delete();
+			
+			if(run >= WARMUP_RUNS)
+				best = Math.min(best, elapsed);
+		}
+		
+		return best;
+	}
+	
+	/**
+	 * Same as {@link #benchmarkParsing(int[])} at 1k, 10k and 100k entries.
+	 * 
+	 * @return
+	 * @throws IOException
+	 * @throws JSONException
+	 */
+	public static String benchmarkParsing() throws IOException, JSONException
+	{
+		return benchmarkParsing(CATALOG_SIZES);
+	}
+	
+	/**
+	 * Fetches a generated manifest of each size passed from a local 
+	 * server and parses it the way this library used to, into a String 
+	 * and JSONArray first, and with the streaming {@link WallpaperParser}. 
+	 * Reports how long each took.
+	 * 
+	 * @param sizes	Number of wallpapers in each manifest.
+	 * @return
+	 * @throws IOException
+	 * @throws JSONException
+	 */
+	public static String benchmarkParsing(int[] sizes) throws IOException, JSONException
+	{
+		StringBuilder report = new StringBuilder();
+		report.append(String.format(Locale.US, "%-10s %14s %14s\n", "Entries", "JSONArray", "Streaming"));
+		
+		for(int size : sizes) {
+			LocalWallpaperServer server = new LocalWallpaperServer();
+			server.addCatalog(WALLPAPER_PATH, size, new byte[0], new byte[0]);
+			server.start();
+			HttpTransport transport = new HttpTransport(CONNECT_TIMEOUT, READ_TIMEOUT, 1);
+			
+			try {
+				String pathURL = server.getBaseURL() + "/" + WALLPAPER_PATH + "/";
+				String url = pathURL + PkWallpaperManager.DEFAULT_METADATA_FILE_NAME;
+				
+				long tree = Long.MAX_VALUE;
+				long streaming = Long.MAX_VALUE;
+				for(int run = 0; run < WARMUP_RUNS + RUNS; run++) {
+					long start = System.nanoTime();
+					checkCount(parseTree(transport, url, pathURL), size);
+					long middle = System.nanoTime();
+					checkCount(parseStreaming(transport, url, pathURL), size);
+					long end = System.nanoTime();
+					
+					if(run >= WARMUP_RUNS) {
+						tree = Math.min(tree, middle - start);
+						streaming = Math.min(streaming, end - middle);
+					}
+				}
+				
+				report.append(String.format(Locale.US, "%-10d %11.1f ms %11.1f ms\n", size, tree / 1e6, streaming / 1e6));
+			}
+			finally {
+				transport.shutdown();
+				server.stop();
+			}
+		}
+		
+		return log(report);
+	}
+	
+	/**
+	 * Parses the manifest the way fetchCloudWallpapers() did before it 
+	 * streamed: the whole response into a String, that into a JSONArray, 
+	 * and only then into wallpapers.
+	 */
+	private static List<Wallpaper> parseTree(WallpaperTransport transport, String url, String pathURL) throws IOException, JSONException
+	{
+		WallpaperTransport.Response response = transport.get(url, null);
+		String body;
+		try {
+			body = readString(response.getContent());
+		}
+		finally {
+			response.close();
+		}
+		
+		JSONArray jsonResponse = new JSONArray(body);
+		int responseLength = jsonResponse.length();
+		List<Wallpaper> wallpapers = new ArrayList<Wallpaper>(responseLength);
+		
+		for(int index = 0; index < responseLength; index++) {
+			JSONObject jsonWallpaper = jsonResponse.getJSONObject(index);
+			Wallpaper mWall = new Wallpaper();
+			mWall.setPathURL(pathURL);
+			mWall.setRelativeFullURL(jsonWallpaper.getString(WallpaperParser.FULL_SRC));
+			mWall.setRelativeThumbURL(jsonWallpaper.getString(WallpaperParser.THUMB_SRC));
+			mWall.setTitle(jsonWallpaper.getString(WallpaperParser.TITLE));
+			mWall.setByLine(jsonWallpaper.getString(WallpaperParser.BYLINE));
+			mWall.setFileSize(jsonWallpaper.getLong(WallpaperParser.FILE_SIZE));
+			mWall.setLocal(false);
+			wallpapers.add(mWall);
+		}
+		
+		return wallpapers;
+	}
+	
+	private static List<Wallpaper> parseStreaming(WallpaperTransport transport, String url, String pathURL) throws IOException
+	{
+		WallpaperTransport.Response response = transport.get(url, null);
+		try {
+			return new WallpaperParser(pathURL).parse(response.getContent());
+		}
+		finally {
+			response.close();
+		}
+	}
+	
+	private static String readString(InputStream input) throws IOException
+	{
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte data[] = new byte[BUFFER_SIZE];
+		int count;
+		
+		while ((count = input.read(data)) != -1) {
+			output.write(data, 0, count);
+		}
+		
+		return output.toString(CHARSET);
+	}
+	
+	private static void checkCount(List<Wallpaper> wallpapers, int expected) throws IOException
+	{
+		if(wallpapers.size() != expected)
+			throw new IOException("Parsed " + wallpapers.size() + " wallpapers instead of " + expected);
+	}
+	
+	/**
+	 * Fetches a generated manifest of the size passed from a local server 
+	 * and reports how much heap the resulting wallpapers take up: laid 
+	 * out like this library used to, with their own base path and both 
+	 * Uris parsed up front, as parsed now, and as parsed now once every 
+	 * Uri has been asked for.
+	 * 
+	 * @param size	Number of wallpapers in the manifest.
+	 * @return
+	 * @throws IOException
+	 * @throws JSONException
+	 */
+	public static String benchmarkHeapFootprint(int size) throws IOException, JSONException
+	{
+		LocalWallpaperServer server = new LocalWallpaperServer();
+		server.addCatalog(WALLPAPER_PATH, size, new byte[0], new byte[0]);
+		server.start();
+		HttpTransport transport = new HttpTransport(CONNECT_TIMEOUT, READ_TIMEOUT, 1);
+		
+		try {
+			String pathURL = server.getBaseURL() + "/" + WALLPAPER_PATH + "/";
+			String url = pathURL + PkWallpaperManager.DEFAULT_METADATA_FILE_NAME;
+			StringBuilder report = new StringBuilder();
+			report.append(String.format(Locale.US, "Heap taken up by %d wallpapers\n", size));
+			
+			// Only one list is alive at a time so they don't skew each other
+			long before = usedMemory();
+			List<Wallpaper> wallpapers = parseTree(transport, url, pathURL);
+			for(Wallpaper mWall : wallpapers) {
+				mWall.setPathURL(new String(pathURL));
+				mWall.setFullUri(Uri.parse(mWall.getFullURL()));
+				mWall.setThumbUri(Uri.parse(mWall.getThumbURL()));
+			}
+			report.append(formatFootprint("Eager", usedMemory() - before, wallpapers.size()));
+			wallpapers = null;
+			
+			before = usedMemory();
+			wallpapers = parseStreaming(transport, url, pathURL);
+			report.append(formatFootprint("Compact", usedMemory() - before, wallpapers.size()));
+			
+			for(Wallpaper mWall : wallpapers) {
+				mWall.getFullUri();
+				mWall.getThumbUri();
+			}
+			report.append(formatFootprint("Compact, Uris used", usedMemory() - before, wallpapers.size()));
+			
+			return log(report);
+		}
+		finally {
+			transport.shutdown();
+			server.stop();
+		}
+	}
+	
+	/**
+	 * Returns the bytes of heap in use once garbage has been collected.
+	 */
+	private static long usedMemory()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for(int pass = 0; pass < GC_PASSES; pass++) {
+			System.gc();
+			System.runFinalization();
+		}
+		
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	private static String formatFootprint(String label, long bytes, int count)
+	{
+		return String.format(Locale.US, "%-20s %10.1f KB %8d bytes each\n", label, bytes / 1024.0, count > 0 ? bytes / count : 0);
+	}
+	
+	private static String formatThroughput(String label, long bytes, long nanos)
+	{
+		double seconds = nanos / 1e9;
+		return String.format(Locale.US, "%-20s %8.1f ms %8.2f MB/s\n", label, nanos / 1e6, bytes / seconds / (1024 * 1024));
+	}
+	
+	private static String log(StringBuilder report)
+	{
+		String result = report.toString();
+		Log.d(LOG_TAG, result);
+		
+		return result;
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.pk.wallpapermanager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable snapshot of every wallpaper loaded by the manager.
+ * <p>
+ * Refreshing the catalog publishes a new snapshot with a higher version 
+ * instead of changing this one, so a snapshot can be read from any 
+ * thread without locking and never changes halfway through.
+ */
+public final class WallpaperCatalog
+{
+	/** Catalog before anything has been loaded. */
+	public static final WallpaperCatalog EMPTY = new WallpaperCatalog(0, Collections.<Wallpaper>emptyList(), Collections.<Wallpaper>emptyList());
+	
+	private final long mVersion;
+	private final List<Wallpaper> mLocalWallpapers;
+	private final List<Wallpaper> mCloudWallpapers;
+	private final List<Wallpaper> mWallpapers;
+	
+	// Built on first use
+	private volatile WallpaperIndex mIndex;
+	
+	private WallpaperCatalog(long version, List<Wallpaper> localWallpapers, List<Wallpaper> cloudWallpapers)
+	{
+		this.mVersion = version;
+		this.mLocalWallpapers = localWallpapers;
+		this.mCloudWallpapers = cloudWallpapers;
+		
+		// Merged once here so reads don't have to
+		List<Wallpaper> wallpapers = new ArrayList<Wallpaper>(localWallpapers.size() + cloudWallpapers.size());
+		wallpapers.addAll(localWallpapers);
+		wallpapers.addAll(cloudWallpapers);
+		this.mWallpapers = Collections.unmodifiableList(wallpapers);
+	}
+	
+	/**
+	 * Returns the next version of this catalog with its local 
+	 * wallpapers replaced by the ones passed.
+	 * 
+	 * @param localWallpapers
+	 * @return
+	 */
+	public WallpaperCatalog withLocalWallpapers(Collection<Wallpaper> localWallpapers)
+	{
+		return new WallpaperCatalog(mVersion + 1, freeze(localWallpapers), mCloudWallpapers);
+	}
+	
+	/**
+	 * Returns the next version of this catalog with its cloud 
+	 * wallpapers replaced by the ones passed.
+	 * 
+	 * @param cloudWallpapers
+	 * @return
+	 */
+	public WallpaperCatalog withCloudWallpapers(Collection<Wallpaper> cloudWallpapers)
+	{
+		return new WallpaperCatalog(mVersion + 1, mLocalWallpapers, freeze(cloudWallpapers));
+	}
+	
+	/**
+	 * Returns the next version of this catalog with both 
+	 * lists replaced by the ones passed.
+	 * 
+	 * @param localWallpapers
+	 * @param cloudWallpapers
+	 * @return
+	 */
+	public WallpaperCatalog withWallpapers(Collection<Wallpaper> localWallpapers, Collection<Wallpaper> cloudWallpapers)
+	{
+		return new WallpaperCatalog(mVersion + 1, freeze(localWallpapers), freeze(cloudWallpapers));
+	}
+	
+	/**
+	 * Version of this catalog. Every refresh increases it by one, 
+	 * starting from 0 for the empty catalog.
+	 * 
+	 * @return
+	 */
+	public long getVersion()
+	{
+		return mVersion;
+	}
+	
+	/**
+	 * Returns the local and cloud wallpapers combined, local first. 
+	 * 
+	 * @return	Unmodifiable list.
+	 */
+	public List<Wallpaper> getWallpapers()
+	{
+		return mWallpapers;
+	}
+	
+	/**
+	 * @return	Unmodifiable list.
+	 */
+	public List<Wallpaper> getLocalWallpapers()
+	{
+		return mLocalWallpapers;
+	}
+	
+	/**
+	 * @return	Unmodifiable list.
+	 */
+	public List<Wallpaper> getCloudWallpapers()
+	{
+		return mCloudWallpapers;
+	}
+	
+	/**
+	 * Returns the index of this catalog for lookups, search and 
+	 * filtering. It's built the first time this is called.
+	 * 
+	 * @return
+	 */
+	public WallpaperIndex getIndex()
+	{
+		WallpaperIndex index = mIndex;
+		if(index == null) {
+			synchronized(this) {
+				index = mIndex;
+				if(index == null) {
+					index = new WallpaperIndex(mWallpapers);
+					mIndex = index;
+				}
+			}
+		}
+		
+		return index;
+	}
+	
+	/**
+	 * Number of local and cloud wallpapers combined.
+	 * 
+	 * @return
+	 */
+	public int size()
+	{
+		return mWallpapers.size();
+	}
+	
+	@Override
+	public String toString() {
+		return "Version: " + mVersion + ", Local: " + mLocalWallpapers.size() + ", Cloud: " + mCloudWallpapers.size();
+	}
+	
+	private static List<Wallpaper> freeze(Collection<Wallpaper> wallpapers)
+	{
+		return Collections.unmodifiableList(new ArrayList<Wallpaper>(wallpapers));
+	}
+}
@@ -0,0 +1,535 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.pk.wallpapermanager;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads a single file, resuming from a previous partial 
+ * download with an HTTP Range request when possible.
+ * <p>
+ * Large files can optionally be split into byte ranges fetched 
+ * over parallel connections and written at their offsets.
+ * <p>
+ * The SHA-256 of the file is computed as it streams in. Files that 
+ * don't match the expected hash or length are thrown away instead 
+ * of being moved into place.
+ */
+class WallpaperDownloader
+{
+	/** Notified as bytes are written to disk. */
+	public interface ProgressListener
+	{
+		public void onProgress(long downloaded, long total);
+	}
+	
+	// HTTP constants
+	private static final int HTTP_OK = 200;
+	private static final int HTTP_PARTIAL = 206;
+	private static final String HEADER_RANGE = "Range";
+	private static final String HEADER_IF_RANGE = "If-Range";
+	private static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+	private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+	private static final String HEADER_CONTENT_RANGE = "Content-Range";
+	private static final String HEADER_ETAG = "ETag";
+	private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+	
+	private final WallpaperTransport mTransport;
+	private final String mSource;
+	private final PartialFile mPartial;
+	private ProgressListener mListener;
+	private long mExpectedLength;
+	private int mByteBuffer;
+	private int mSegments;
+	private long mSegmentThreshold;
+	private String mExpectedHash;
+	
+	// Hash of the bytes written so far, null if they arrived out of order
+	private MessageDigest mDigest;
+	private String mHash;
+	
+	// Bytes written across all segments
+	private final AtomicLong mDownloaded;
+	
+	public WallpaperDownloader(WallpaperTransport transport, String source, File file)
+	{
+		this.mTransport = transport;
+		this.mSource = source;
+		this.mPartial = new PartialFile(file);
+		this.mListener = null;
+		this.mExpectedLength = -1;
+		this.mByteBuffer = 2048;
+		this.mSegments = 1;
+		this.mSegmentThreshold = Long.MAX_VALUE;
+		this.mExpectedHash = null;
+		this.mDigest = null;
+		this.mHash = null;
+		this.mDownloaded = new AtomicLong();
+	}
+	
+	public void setProgressListener(ProgressListener listener)
+	{
+		this.mListener = listener;
+	}
+	
+	/**
+	 * Length to report progress against if the server doesn't say.
+	 * 
+	 * @param expectedLength
+	 */
+	public void setExpectedLength(long expectedLength)
+	{
+		this.mExpectedLength = expectedLength;
+	}
+	
+	/**
+	 * SHA-256 the finished file must have, in hex. Null to accept any.
+	 * 
+	 * @param sha256
+	 */
+	public void setExpectedHash(String sha256)
+	{
+		this.mExpectedHash = sha256;
+	}
+	
+	/**
+	 * Returns the SHA-256 of the finished file in lowercase hex, 
+	 * null until {@link #complete()} succeeded.
+	 * 
+	 * @return
+	 */
+	public String getHash()
+	{
+		return mHash;
+	}
+	
+	public void setByteBuffer(int byteBuffer)
+	{
+		this.mByteBuffer = byteBuffer;
+	}
+	
+	/**
+	 * Splits files of at least <code>threshold</code> bytes into the 
+	 * number of segments passed, each fetched over its own connection.
+	 * 
+	 * @param segments
+	 * @param threshold
+	 */
+	public void setSegments(int segments, long threshold)
+	{
+		this.mSegments = segments;
+		this.mSegmentThreshold = threshold;
+	}
+	
+	/**
+	 * Downloads the file, resuming where a previous attempt left off 
+	 * if the server still has the same version of it. Returns the 
+	 * finished file once it has been moved into place.
+	 * <p>
+	 * If this throws, the partial bytes are kept for the next attempt, 
+	 * unless the download was cancelled.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public File download() throws IOException
+	{
+		transfer();
+		return complete();
+	}
+	
+	/**
+	 * Downloads all bytes into the partial file without moving it into 
+	 * place yet. Call {@link #complete()} afterwards, possibly from 
+	 * another thread, to finish the download.
+	 * <p>
+	 * If this throws, the partial bytes are kept for the next attempt, 
+	 * unless the download was cancelled.
+	 * 
+	 * @throws IOException
+	 */
+	public void transfer() throws IOException
+	{
+		// Only start segmented downloads fresh, a linear one in progress is cheaper to resume
+		if(mSegments > 1 && mPartial.getResumeOffset() == 0 && transferSegmented())
+			return;
+		
+		transferLinear();
+	}
+	
+	/**
+	 * Flushes the transferred bytes to disk, checks them and moves 
+	 * the finished file into place. Corrupt bytes are discarded.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public File complete() throws IOException
+	{
+		File part = mPartial.getPartFile();
+		RandomAccessFile file = new RandomAccessFile(part, "rw");
+		try {
+			file.getFD().sync();
+		}
+		finally {
+			file.close();
+		}
+		
+		// Segments arrive out of order, those are hashed once they're all in
+		String hash = mDigest != null ? DownloadIndex.toHex(mDigest.digest()) : DownloadIndex.hash(part);
+		mDigest = null;
+		
+		long length = mPartial.getLength();
+		if(length > 0 && part.length() != length) {
+			mPartial.discard();
+			throw new IOException("Download of " + mSource + " is corrupt: " + part.length() + " of " + length + " bytes");
+		}
+		if(mExpectedHash != null && !mExpectedHash.equalsIgnoreCase(hash)) {
+			mPartial.discard();
+			throw new IOException("Download of " + mSource + " is corrupt: SHA-256 " + hash + " instead of " + mExpectedHash);
+		}
+		
+		mPartial.complete();
+		mHash = hash;
+		return mPartial.getTarget();
+	}
+	
+	/**
+	 * Downloads the file over a single connection.
+	 */
+	private void transferLinear() throws IOException
+	{
+		long offset = mPartial.getResumeOffset();
+		Map<String, String> headers = new HashMap<String, String>();
+		if(offset > 0) {
+			// Only send us the rest if it's still the same file
+			headers.put(HEADER_RANGE, "bytes=" + offset + "-");
+			headers.put(HEADER_IF_RANGE, mPartial.getValidator());
+		}
+		
+		WallpaperTransport.Response response = mTransport.get(mSource, headers);
+		Runnable abort = Cancellation.register(response);
+		boolean finished = false;
+		mDigest = null;
+		
+		try {
+			int status = response.getStatusCode();
+			if(status == 416 && offset > 0 && offset == mPartial.getLength()) {
+				// Everything was already downloaded, we just never moved it into place
+				finished = true;
+				return;
+			}
+			else if(status == 416) {
+				// Our partial bytes don't fit the file anymore, start over next time
+				mPartial.discard();
+				throw new IOException("Unable to resume " + mSource);
+			}
+			else if(status >= 300) {
+				throw new IOException("Unable to download " + mSource + " (HTTP " + status + ")");
+			}
+			
+			// Anything but a partial response means starting from scratch
+			boolean resume = offset > 0 && status == HTTP_PARTIAL;
+			if(!resume) {
+				offset = 0;
+				mPartial.discard();
+			}
+			
+			// Only a length the server reported is enforced, the manifest size is just for progress
+			long contentLength = response.getContentLength();
+			long serverLength = resume ? parseRangeTotal(response.getHeader(HEADER_CONTENT_RANGE)) : -1;
+			if(serverLength < 0 && contentLength > 0)
+				serverLength = offset + contentLength;
+			long total = serverLength > 0 ? serverLength : mExpectedLength;
+			if(!resume)
+				mPartial.begin(response.getHeader(HEADER_ETAG), response.getHeader(HEADER_LAST_MODIFIED), serverLength, false);
+			
+			// Hash as we go, starting with the bytes we're resuming from
+			MessageDigest digest = DownloadIndex.newDigest();
+			if(resume)
+				DownloadIndex.update(digest, mPartial.getPartFile(), offset);
+			
+			InputStream input = new BufferedInputStream(response.getContent(), 8192);
+			OutputStream output = new FileOutputStream(mPartial.getPartFile(), resume);
+			long downloaded = offset;
+			try {
+				byte data[] = new byte[mByteBuffer];
+				int count;
+				
+				while ((count = input.read(data)) != -1) {
+					Cancellation.throwIfCancelled("downloading " + mSource);
+					
+					output.write(data, 0, count);
+					digest.update(data, 0, count);
+					downloaded += count;
+					
+					if(mListener != null)
+						mListener.onProgress(downloaded, total);
+				}
+				
+				output.flush();
+			}
+			finally {
+				output.close();
+			}
+			
+			// The connection dropped without an error, keep what we have for next time
+			if(contentLength > 0 && downloaded < offset + contentLength)
+				throw new IOException("Download of " + mSource + " ended early at " + downloaded + " bytes");
+			
+			mDigest = digest;
+			finished = true;
+		}
+		catch (IOException e) {
+			// The user backed out, don't leave the partial bytes behind
+			if(Cancellation.isCancelled()) {
+				mPartial.discard();
+				throw new InterruptedIOException("Cancelled downloading " + mSource);
+			}
+			
+			throw e;
+		}
+		finally {
+			Cancellation.unregister(abort);
+			
+			// Fully read connections go back to the pool for the next request
+			if(finished)
+				response.close();
+			else
+				response.abort();
+		}
+	}
+	
+	/**
+	 * Downloads the file as parallel byte ranges. Returns false without 
+	 * downloading anything if the file is too small or the server can't 
+	 * serve ranges of a single, identifiable version of it.
+	 * <p>
+	 * Segments are written out of order, so a failed segmented download 
+	 * is discarded rather than resumed.
+	 */
+	private boolean transferSegmented() throws IOException
+	{
+		// Don't spend a round trip on what the manifest already says is too small
+		if(mExpectedLength > 0 && mExpectedLength < mSegmentThreshold)
+			return false;
+		
+		// Ask for the size and range support first
+		WallpaperTransport.Response head = mTransport.head(mSource, null);
+		final long length;
+		final String eTag;
+		final String lastModified;
+		
+		try {
+			if(head.getStatusCode() != HTTP_OK || !"bytes".equalsIgnoreCase(head.getHeader(HEADER_ACCEPT_RANGES)))
+				return false;
+			
+			length = parseLength(head.getHeader(HEADER_CONTENT_LENGTH));
+			eTag = head.getHeader(HEADER_ETAG);
+			lastModified = head.getHeader(HEADER_LAST_MODIFIED);
+		}
+		finally {
+			head.close();
+		}
+		
+		// Every segment must come from the same version of the file
+		final String validator = eTag != null ? eTag : lastModified;
+		if(length < mSegmentThreshold || length < mSegments || validator == null)
+			return false;
+		
+		mPartial.discard();
+		mPartial.begin(eTag, lastModified, length, true);
+		mDownloaded.set(0);
+		mDigest = null;
+		
+		// Segments are cancelled along with us
+		final Cancellation cancellation = Cancellation.current();
+		
+		RandomAccessFile file = new RandomAccessFile(mPartial.getPartFile(), "rw");
+		ExecutorService executor = Executors.newFixedThreadPool(mSegments);
+		boolean success = false;
+		
+		try {
+			file.setLength(length);
+			final FileChannel channel = file.getChannel();
+			
+			long segmentSize = (length + mSegments - 1) / mSegments;
+			List<Future<Void>> segments = new ArrayList<Future<Void>>(mSegments);
+			for(long start = 0; start < length; start += segmentSize) {
+				final long first = start;
+				final long last = Math.min(length, start + segmentSize) - 1;
+				
+				segments.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						Cancellation previous = cancellation != null ? cancellation.attach() : null;
+						try {
+							downloadSegment(channel, first, last, validator, length);
+						}
+						finally {
+							if(cancellation != null)
+								Cancellation.restore(previous);
+						}
+						return null;
+					}
+				}));
+			}
+			
+			for(Future<Void> segment : segments) {
+				segment.get();
+			}
+			
+			channel.force(false);
+			success = true;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Cancelled downloading " + mSource);
+		}
+		catch (ExecutionException e) {
+			if(Cancellation.isCancelled())
+				throw new InterruptedIOException("Cancelled downloading " + mSource);
+			
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			
+			throw new IOException("Unable to download " + mSource + ": " + e.getCause());
+		}
+		finally {
+			// Stops the remaining segments if one of them failed
+			executor.shutdownNow();
+			file.close();
+			
+			if(!success)
+				mPartial.discard();
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Downloads the inclusive byte range passed and writes it 
+	 * at the same position in the file.
+	 */
+	private void downloadSegment(FileChannel channel, long first, long last, String validator, long total) throws IOException
+	{
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put(HEADER_RANGE, "bytes=" + first + "-" + last);
+		headers.put(HEADER_IF_RANGE, validator);
+		
+		WallpaperTransport.Response response = mTransport.get(mSource, headers);
+		Runnable abort = Cancellation.register(response);
+		boolean finished = false;
+		
+		try {
+			// Anything but our range means the file changed under us
+			if(response.getStatusCode() != HTTP_PARTIAL)
+				throw new IOException("Server did not honor range " + first + "-" + last + " of " + mSource);
+			
+			InputStream input = new BufferedInputStream(response.getContent(), 8192);
+			byte data[] = new byte[mByteBuffer];
+			long position = first;
+			int count;
+			
+			while (position <= last && (count = input.read(data, 0, (int) Math.min(data.length, last - position + 1))) != -1) {
+				Cancellation.throwIfCancelled("segment " + first + "-" + last + " of " + mSource);
+				
+				ByteBuffer buffer = ByteBuffer.wrap(data, 0, count);
+				while(buffer.hasRemaining()) {
+					position += channel.write(buffer, position);
+				}
+				
+				notifyProgress(mDownloaded.addAndGet(count), total);
+			}
+			
+			if(position <= last)
+				throw new IOException("Segment " + first + "-" + last + " of " + mSource + " ended early");
+			
+			finished = true;
+		}
+		finally {
+			Cancellation.unregister(abort);
+			
+			if(finished)
+				response.close();
+			else
+				response.abort();
+		}
+	}
+	
+	/**
+	 * Progress from all segments is merged into one stream of updates.
+	 */
+	private synchronized void notifyProgress(long downloaded, long total)
+	{
+		if(mListener != null)
+			mListener.onProgress(downloaded, total);
+	}
+	
+	/**
+	 * Returns the complete length from a "bytes first-last/total" 
+	 * Content-Range header, or -1 if it isn't known.
+	 */
+	private static long parseRangeTotal(String value)
+	{
+		if(value == null)
+			return -1;
+		
+		int slash = value.lastIndexOf('/');
+		return slash < 0 ? -1 : parseLength(value.substring(slash + 1).trim());
+	}
+	
+	private static long parseLength(String value)
+	{
+		if(value == null)
+			return -1;
+		
+		try {
+			return Long.parseLong(value);
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
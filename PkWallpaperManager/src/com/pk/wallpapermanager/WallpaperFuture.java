@@ -0,0 +1,259 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.pk.wallpapermanager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The result of asynchronous work started by {@link PkWallpaperManager}.
+ * <p>
+ * Wait for it with {@link #get()} off the main UI thread, or add a callback 
+ * to be told once it's done. Callbacks run on the manager's callback executor 
+ * unless you pass your own. Callers that start the same work while it's 
+ * still running are handed the same future.
+ * <p>
+ * Cancel it with <code>cancel(true)</code> to stop the work. Connections 
+ * and decodes in progress are aborted right away and partial files are 
+ * cleaned up. Cancellation is reported to listeners as a failure.
+ *
+ * @param <V>	The type of the result
+ */
+public class WallpaperFuture<V> extends FutureTask<V>
+{
+	/**
+	 * Told once a {@link WallpaperFuture} is done.
+	 */
+	public interface Callback<V>
+	{
+		public void onSuccess(V result);
+		
+		/**
+		 * Called with the exception the work failed with, or a 
+		 * CancellationException if the future was cancelled.
+		 * 
+		 * @param error
+		 */
+		public void onFailure(Throwable error);
+	}
+	
+	private final Executor mCallbackExecutor;
+	
+	// Stops whatever the work is blocked on once we're cancelled
+	private final Cancellation mCancellation;
+	private volatile boolean mStarted;
+	
+	// Callbacks waiting for the result, null once it's in
+	private List<Runnable> mCallbacks;
+	
+	public WallpaperFuture(Callable<V> callable, Executor callbackExecutor)
+	{
+		super(callable);
+		this.mCallbackExecutor = callbackExecutor;
+		this.mCallbacks = new ArrayList<Runnable>();
+		this.mCancellation = new Cancellation();
+		this.mStarted = false;
+	}
+	
+	/**
+	 * Returns a future that's already done with the result passed.
+	 */
+	static <V> WallpaperFuture<V> completed(final V result, Executor callbackExecutor)
+	{
+		WallpaperFuture<V> future = new WallpaperFuture<V>(new Callable<V>() {
+			@Override
+			public V call() throws Exception {
+				return result;
+			}
+		}, callbackExecutor);
+		future.run();
+		
+		return future;
+	}
+	
+	/**
+	 * Returns a future that already failed with the exception passed.
+	 */
+	static <V> WallpaperFuture<V> failed(final Exception error, Executor callbackExecutor)
+	{
+		WallpaperFuture<V> future = new WallpaperFuture<V>(new Callable<V>() {
+			@Override
+			public V call() throws Exception {
+				throw error;
+			}
+		}, callbackExecutor);
+		future.run();
+		
+		return future;
+	}
+	
+	/**
+	 * Adds a callback run on the manager's callback executor once this 
+	 * is done, right away if it already is.
+	 * 
+	 * @param callback
+	 * @return	This future, for chaining
+	 */
+	public WallpaperFuture<V> addCallback(Callback<V> callback)
+	{
+		return addCallback(callback, mCallbackExecutor);
+	}
+	
+	/**
+	 * Adds a callback run on the executor passed once this is 
+	 * done, right away if it already is.
+	 * 
+	 * @param callback
+	 * @param executor
+	 * @return	This future, for chaining
+	 */
+	public WallpaperFuture<V> addCallback(final Callback<V> callback, final Executor executor)
+	{
+		Runnable notification = new Runnable() {
+			@Override
+			public void run() {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						notifyCallback(callback);
+					}
+				});
+			}
+		};
+		
+		synchronized(this) {
+			if(mCallbacks != null) {
+				mCallbacks.add(notification);
+				return this;
+			}
+		}
+		
+		notification.run();
+		return this;
+	}
+	
+	/**
+	 * Returns true if this is done and finished without an 
+	 * exception or being cancelled.
+	 * 
+	 * @return
+	 */
+	public boolean isSuccessful()
+	{
+		if(!isDone() || isCancelled())
+			return false;
+		
+		try {
+			get();
+			return true;
+		}
+		catch (ExecutionException e) {
+			return false;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	/**
+	 * Returns true once the work started running, even if it was cancelled since.
+	 * 
+	 * @return
+	 */
+	public boolean hasStarted()
+	{
+		return mStarted;
+	}
+	
+	@Override
+	public void run()
+	{
+		if(isDone())
+			return;
+		
+		mStarted = true;
+		Cancellation previous = mCancellation.attach();
+		try {
+			super.run();
+		}
+		finally {
+			Cancellation.restore(previous);
+		}
+	}
+	
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning)
+	{
+		boolean cancelled = super.cancel(mayInterruptIfRunning);
+		if(cancelled && mayInterruptIfRunning)
+			mCancellation.cancel();
+		
+		return cancelled;
+	}
+	
+	@Override
+	protected void done()
+	{
+		List<Runnable> callbacks;
+		synchronized(this) {
+			callbacks = mCallbacks;
+			mCallbacks = null;
+		}
+		
+		for(Runnable notification : callbacks) {
+			notification.run();
+		}
+	}
+	
+	private void notifyCallback(Callback<V> callback)
+	{
+		V result;
+		try {
+			result = get();
+		}
+		catch (ExecutionException e) {
+			callback.onFailure(e.getCause());
+			return;
+		}
+		catch (CancellationException e) {
+			callback.onFailure(e);
+			return;
+		}
+		catch (InterruptedException e) {
+			// Can't happen, we're only called once done
+			Thread.currentThread().interrupt();
+			callback.onFailure(e);
+			return;
+		}
+		
+		callback.onSuccess(result);
+	}
+}
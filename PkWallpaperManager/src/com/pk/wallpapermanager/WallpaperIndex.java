@@ -0,0 +1,363 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.pk.wallpapermanager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Lookup, search and filtering over a single {@link WallpaperCatalog}.
+ * <p>
+ * Built once per catalog and never changed afterwards, so it can be 
+ * queried from any thread. Titles and bylines are split into lowercase 
+ * tokens kept in a sorted array, which turns a prefix search into a 
+ * binary search followed by a short scan.
+ */
+public final class WallpaperIndex
+{
+	private final List<Wallpaper> mWallpapers;
+	
+	// Exact lookups
+	private final Map<String, Wallpaper> mByFullURL;
+	private final Map<String, Wallpaper> mByThumbURL;
+	private final Map<Integer, Wallpaper> mByResource;
+	
+	// Sorted tokens and, for each, the positions of the wallpapers containing it
+	private final String[] mTokens;
+	private final int[][] mPostings;
+	
+	// Positions sorted by file size
+	private final int[] mBySize;
+	private final long[] mSizes;
+	
+	WallpaperIndex(List<Wallpaper> wallpapers)
+	{
+		int count = wallpapers.size();
+		this.mWallpapers = wallpapers;
+		this.mByFullURL = new HashMap<String, Wallpaper>(count * 2);
+		this.mByThumbURL = new HashMap<String, Wallpaper>(count * 2);
+		this.mByResource = new HashMap<Integer, Wallpaper>();
+		
+		// Positions are added in order, so every posting list ends up sorted
+		TreeMap<String, IntList> tokens = new TreeMap<String, IntList>();
+		
+		for(int i = 0; i < count; i++) {
+			Wallpaper mWall = wallpapers.get(i);
+			
+			if(mWall.isLocal()) {
+				if(mWall.getFullResource() != 0)
+					mByResource.put(mWall.getFullResource(), mWall);
+				if(mWall.getThumbResource() != 0)
+					mByResource.put(mWall.getThumbResource(), mWall);
+			}
+			else {
+				mByFullURL.put(mWall.getFullURL(), mWall);
+				mByThumbURL.put(mWall.getThumbURL(), mWall);
+			}
+			
+			addTokens(tokens, mWall.getTitle(), i);
+			addTokens(tokens, mWall.getByLine(), i);
+		}
+		
+		this.mTokens = new String[tokens.size()];
+		this.mPostings = new int[tokens.size()][];
+		int t = 0;
+		for(Map.Entry<String, IntList> entry : tokens.entrySet()) {
+			mTokens[t] = entry.getKey();
+			mPostings[t] = entry.getValue().toArray();
+			t++;
+		}
+		
+		// Sort positions by size once so ranges are two binary searches away
+		Integer[] order = new Integer[count];
+		for(int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer lhs, Integer rhs) {
+				long left = mWallpapers.get(lhs).getFileSize();
+				long right = mWallpapers.get(rhs).getFileSize();
+				return left < right ? -1 : (left == right ? 0 : 1);
+			}
+		});
+		
+		this.mBySize = new int[count];
+		this.mSizes = new long[count];
+		for(int i = 0; i < count; i++) {
+			mBySize[i] = order[i];
+			mSizes[i] = wallpapers.get(order[i]).getFileSize();
+		}
+	}
+	
+	/**
+	 * Returns the cloud wallpaper with the full URL passed or null.
+	 * 
+	 * @param url
+	 * @return
+	 */
+	public Wallpaper getByFullURL(String url)
+	{
+		return mByFullURL.get(url);
+	}
+	
+	/**
+	 * Returns the cloud wallpaper with the thumbnail URL passed or null.
+	 * 
+	 * @param url
+	 * @return
+	 */
+	public Wallpaper getByThumbURL(String url)
+	{
+		return mByThumbURL.get(url);
+	}
+	
+	/**
+	 * Returns the local wallpaper using the full or thumbnail 
+	 * resource passed or null.
+	 * 
+	 * @param resource
+	 * @return
+	 */
+	public Wallpaper getByResource(int resource)
+	{
+		return mByResource.get(resource);
+	}
+	
+	/**
+	 * Returns the wallpapers whose title or byline contains a word 
+	 * starting with each word of the query passed, in catalog order. 
+	 * Matching ignores case, so "sun bea" finds "Beach Sunset". 
+	 * An empty query matches everything.
+	 * 
+	 * @param query
+	 * @return
+	 */
+	public List<Wallpaper> search(String query)
+	{
+		String[] words = tokenize(query);
+		if(words.length == 0)
+			return mWallpapers;
+		
+		int[] matches = null;
+		for(String word : words) {
+			int[] positions = findPrefix(word);
+			matches = matches == null ? positions : intersect(matches, positions);
+			
+			if(matches.length == 0)
+				return Collections.emptyList();
+		}
+		
+		List<Wallpaper> results = new ArrayList<Wallpaper>(matches.length);
+		for(int position : matches) {
+			results.add(mWallpapers.get(position));
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * Returns the wallpapers whose file size is within the range 
+	 * passed, both ends included, from smallest to largest.
+	 * 
+	 * @param minSize
+	 * @param maxSize
+	 * @return
+	 */
+	public List<Wallpaper> filterByFileSize(long minSize, long maxSize)
+	{
+		int first = lowerBound(mSizes, minSize);
+		int last = maxSize == Long.MAX_VALUE ? mSizes.length : lowerBound(mSizes, maxSize + 1);
+		if(first >= last)
+			return Collections.emptyList();
+		
+		List<Wallpaper> results = new ArrayList<Wallpaper>(last - first);
+		for(int i = first; i < last; i++) {
+			results.add(mWallpapers.get(mBySize[i]));
+		}
+		
+		return results;
+	}
+	
+	/** Number of distinct words indexed. */
+	public int getTokenCount()
+	{
+		return mTokens.length;
+	}
+	
+	/**
+	 * Union of the postings of every token starting with the prefix passed.
+	 */
+	private int[] findPrefix(String prefix)
+	{
+		int start = Arrays.binarySearch(mTokens, prefix);
+		if(start < 0)
+			start = -start - 1;
+		
+		int end = start;
+		while(end < mTokens.length && mTokens[end].startsWith(prefix)) {
+			end++;
+		}
+		
+		// Most prefixes match a single token, skip the merge
+		if(end - start == 1)
+			return mPostings[start];
+		
+		IntList union = new IntList();
+		boolean[] seen = new boolean[mWallpapers.size()];
+		for(int t = start; t < end; t++) {
+			for(int position : mPostings[t]) {
+				if(!seen[position]) {
+					seen[position] = true;
+					union.add(position);
+				}
+			}
+		}
+		
+		int[] positions = union.toArray();
+		Arrays.sort(positions);
+		return positions;
+	}
+	
+	private static int[] intersect(int[] a, int[] b)
+	{
+		IntList result = new IntList();
+		int i = 0;
+		int j = 0;
+		
+		while(i < a.length && j < b.length) {
+			if(a[i] < b[j])
+				i++;
+			else if(a[i] > b[j])
+				j++;
+			else {
+				result.add(a[i]);
+				i++;
+				j++;
+			}
+		}
+		
+		return result.toArray();
+	}
+	
+	/**
+	 * First index whose value is not less than the key passed.
+	 */
+	private static int lowerBound(long[] values, long key)
+	{
+		int low = 0;
+		int high = values.length;
+		
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(values[middle] < key)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		
+		return low;
+	}
+	
+	private static void addTokens(TreeMap<String, IntList> tokens, String text, int position)
+	{
+		for(String token : tokenize(text)) {
+			IntList positions = tokens.get(token);
+			if(positions == null) {
+				positions = new IntList();
+				tokens.put(token, positions);
+			}
+			
+			// A word repeated in the same wallpaper is only recorded once
+			if(positions.size() == 0 || positions.last() != position)
+				positions.add(position);
+		}
+	}
+	
+	/**
+	 * Splits the text passed into lowercase words of letters and digits.
+	 */
+	static String[] tokenize(String text)
+	{
+		if(text == null || text.length() == 0)
+			return new String[0];
+		
+		List<String> words = new ArrayList<String>();
+		String lower = text.toLowerCase(Locale.getDefault());
+		int start = -1;
+		
+		for(int i = 0; i <= lower.length(); i++) {
+			boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+			if(wordChar && start < 0) {
+				start = i;
+			}
+			else if(!wordChar && start >= 0) {
+				words.add(lower.substring(start, i));
+				start = -1;
+			}
+		}
+		
+		return words.toArray(new String[words.size()]);
+	}
+	
+	/**
+	 * Growable array of ints, avoids boxing while building postings.
+	 */
+	private static class IntList
+	{
+		private int[] mValues = new int[4];
+		private int mSize = 0;
+		
+		void add(int value)
+		{
+			if(mSize == mValues.length)
+				mValues = Arrays.copyOf(mValues, mSize * 2);
+			
+			mValues[mSize++] = value;
+		}
+		
+		int last()
+		{
+			return mValues[mSize - 1];
+		}
+		
+		int size()
+		{
+			return mSize;
+		}
+		
+		int[] toArray()
+		{
+			return Arrays.copyOf(mValues, mSize);
+		}
+	}
+}
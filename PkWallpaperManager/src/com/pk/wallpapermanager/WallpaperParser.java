@@ -0,0 +1,226 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.pk.wallpapermanager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+/**
+ * Token-level parser for wallpaper metadata.
+ * <p>
+ * Reads wallpaper entries straight off a stream and builds Wallpaper 
+ * objects as it goes, instead of buffering the whole response into a 
+ * String and JSONArray tree first.
+ * <p>
+ * A manifest is either a plain array of wallpapers or a page object:
+ * <pre>
+ * { "wallpapers": [ ... ], "pages": [ "page2.json", ... ], "next": "page2.json" }
+ * </pre>
+ * where "pages" lists every other page up front and "next" points at 
+ * the following page only. Both are optional.
+ * <p>
+ * Besides its sources, title, byline and "file_size", a wallpaper may 
+ * carry the "sha256" of its full image in hex to verify downloads with.
+ */
+class WallpaperParser
+{
+	// JSON Constants
+	public static final String FULL_SRC = "full_src";
+	public static final String THUMB_SRC = "thumb_src";
+	public static final String TITLE = "title";
+	public static final String BYLINE = "byline";
+	public static final String FILE_SIZE = "file_size";
+	public static final String SHA256 = "sha256";
+	public static final String WALLPAPERS = "wallpapers";
+	public static final String PAGES = "pages";
+	public static final String NEXT = "next";
+	
+	private static final String CHARSET = "UTF-8";
+	
+	// Base URL every relative source is resolved against
+	private final String mPathURL;
+	
+	public WallpaperParser(String pathURL)
+	{
+		// Every page and refresh shares the same instance
+		this.mPathURL = pathURL.intern();
+	}
+	
+	/**
+	 * Parses a JSON array of wallpapers from the stream passed.
+	 * The stream is closed once parsing is done.
+	 * 
+	 * @param input
+	 * @return
+	 * @throws IOException
+	 */
+	public List<Wallpaper> parse(InputStream input) throws IOException
+	{
+		List<Wallpaper> wallpapers = new ArrayList<Wallpaper>();
+		parse(input, wallpapers);
+		
+		return wallpapers;
+	}
+	
+	/**
+	 * Parses a JSON array of wallpapers from the stream passed, 
+	 * appending each one to the list as soon as it's read.
+	 * The stream is closed once parsing is done.
+	 * 
+	 * @param input
+	 * @param wallpapers
+	 * @return	Number of wallpapers parsed.
+	 * @throws IOException
+	 */
+	public int parse(InputStream input, List<Wallpaper> wallpapers) throws IOException
+	{
+		return parse(input, wallpapers, null);
+	}
+	
+	/**
+	 * Parses a manifest page from the stream passed, appending each 
+	 * wallpaper to the list as soon as it's read and each page it 
+	 * points to to the list of pages passed, in order.
+	 * The stream is closed once parsing is done.
+	 * 
+	 * @param input
+	 * @param wallpapers
+	 * @param pages	May be null to ignore other pages.
+	 * @return	Number of wallpapers parsed.
+	 * @throws IOException	Also if the manifest is malformed or has 
+	 * 						values of the wrong type.
+	 */
+	public int parse(InputStream input, List<Wallpaper> wallpapers, List<String> pages) throws IOException
+	{
+		JsonReader reader = new JsonReader(new InputStreamReader(input, CHARSET));
+		int count = 0;
+		
+		try {
+			if(reader.peek() == JsonToken.BEGIN_ARRAY) {
+				count = readWallpapers(reader, wallpapers);
+			}
+			else {
+				reader.beginObject();
+				while(reader.hasNext()) {
+					String name = reader.nextName();
+					
+					if(reader.peek() == JsonToken.NULL)
+						reader.skipValue();
+					else if(name.equals(WALLPAPERS))
+						count += readWallpapers(reader, wallpapers);
+					else if(name.equals(PAGES) && pages != null)
+						readPages(reader, pages);
+					else if(name.equals(NEXT) && pages != null)
+						pages.add(reader.nextString());
+					else
+						reader.skipValue();
+				}
+				reader.endObject();
+			}
+		}
+		// JsonReader reports unexpected tokens and numbers it can't read unchecked
+		catch (IllegalStateException e) {
+			throw new IOException("Malformed wallpaper manifest: " + e.getMessage(), e);
+		}
+		catch (NumberFormatException e) {
+			throw new IOException("Malformed wallpaper manifest: " + e.getMessage(), e);
+		}
+		finally {
+			reader.close();
+		}
+		
+		return count;
+	}
+	
+	private int readWallpapers(JsonReader reader, List<Wallpaper> wallpapers) throws IOException
+	{
+		int count = 0;
+		
+		reader.beginArray();
+		while(reader.hasNext()) {
+			wallpapers.add(readWallpaper(reader));
+			count++;
+		}
+		reader.endArray();
+		
+		return count;
+	}
+	
+	private void readPages(JsonReader reader, List<String> pages) throws IOException
+	{
+		reader.beginArray();
+		while(reader.hasNext()) {
+			pages.add(reader.nextString());
+		}
+		reader.endArray();
+	}
+	
+	/**
+	 * Reads a single wallpaper object. Unknown fields are skipped 
+	 * without being materialized.
+	 * 
+	 * @param reader
+	 * @return
+	 * @throws IOException
+	 */
+	protected Wallpaper readWallpaper(JsonReader reader) throws IOException
+	{
+		Wallpaper mWall = new Wallpaper();
+		mWall.setPathURL(mPathURL);
+		
+		reader.beginObject();
+		while(reader.hasNext()) {
+			String name = reader.nextName();
+			
+			if(reader.peek() == JsonToken.NULL)
+				reader.skipValue();
+			else if(name.equals(FULL_SRC))
+				mWall.setRelativeFullURL(reader.nextString());
+			else if(name.equals(THUMB_SRC))
+				mWall.setRelativeThumbURL(reader.nextString());
+			else if(name.equals(TITLE))
+				mWall.setTitle(reader.nextString());
+			else if(name.equals(BYLINE))
+				mWall.setByLine(reader.nextString());
+			else if(name.equals(FILE_SIZE))
+				mWall.setFileSize(reader.nextLong());
+			else if(name.equals(SHA256))
+				mWall.setSha256(reader.nextString().toLowerCase(Locale.US));
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+		
+		mWall.setLocal(false);
+		
+		return mWall;
+	}
+}
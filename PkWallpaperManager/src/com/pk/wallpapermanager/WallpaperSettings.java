@@ -44,6 +44,25 @@ public class WallpaperSettings
 	private String wallpaperPath;
 	private boolean webEnabled;
 	private int byteBuffer;
+	private boolean cacheEnabled;
+	private int thumbMemoryCacheSize;
+	private long thumbDiskCacheSize;
+	private boolean streamWallpapers;
+	private int downloadSegments;
+	private long segmentThreshold;
+	private int maxConcurrentDownloads;
+	private long progressInterval;
+	private int connectTimeout;
+	private int readTimeout;
+	private int maxConnections;
+	private long refreshTTL;
+	private long minRefreshInterval;
+	private long refreshBackoff;
+	private long maxRefreshBackoff;
+	private float refreshJitter;
+	private int minPrefetchDepth;
+	private int maxPrefetchDepth;
+	private int prefetchThreads;
 	
 	public WallpaperSettings() {
 		this.localWallpapers = new String[0];
@@ -58,6 +77,25 @@ public class WallpaperSettings
 		this.wallpaperPath = "wallpapers/" + packageID;
 		this.webEnabled = true;
 		this.byteBuffer = 2048;
+		this.cacheEnabled = true;
+		this.thumbMemoryCacheSize = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+		this.thumbDiskCacheSize = 20 * 1024 * 1024;
+		this.streamWallpapers = true;
+		this.downloadSegments = 1;
+		this.segmentThreshold = 8 * 1024 * 1024;
+		this.maxConcurrentDownloads = 3;
+		this.progressInterval = 500;
+		this.connectTimeout = 15000;
+		this.readTimeout = 30000;
+		this.maxConnections = 8;
+		this.refreshTTL = 15 * 60 * 1000;
+		this.minRefreshInterval = 30 * 1000;
+		this.refreshBackoff = 30 * 1000;
+		this.maxRefreshBackoff = 60 * 60 * 1000;
+		this.refreshJitter = 0.1f;
+		this.minPrefetchDepth = 4;
+		this.maxPrefetchDepth = 24;
+		this.prefetchThreads = 2;
 	}
 	
 	public WallpaperSettings(Builder builder) {
@@ -73,6 +111,25 @@ public class WallpaperSettings
 		this.wallpaperPath = builder.wallpaperPath;
 		this.webEnabled = builder.webEnabled;
 		this.byteBuffer = builder.byteBuffer;
+		this.cacheEnabled = builder.cacheEnabled;
+		this.thumbMemoryCacheSize = builder.thumbMemoryCacheSize;
+		this.thumbDiskCacheSize = builder.thumbDiskCacheSize;
+		this.streamWallpapers = builder.streamWallpapers;
+		this.downloadSegments = builder.downloadSegments;
+		this.segmentThreshold = builder.segmentThreshold;
+		this.maxConcurrentDownloads = builder.maxConcurrentDownloads;
+		this.progressInterval = builder.progressInterval;
+		this.connectTimeout = builder.connectTimeout;
+		this.readTimeout = builder.readTimeout;
+		this.maxConnections = builder.maxConnections;
+		this.refreshTTL = builder.refreshTTL;
+		this.minRefreshInterval = builder.minRefreshInterval;
+		this.refreshBackoff = builder.refreshBackoff;
+		this.maxRefreshBackoff = builder.maxRefreshBackoff;
+		this.refreshJitter = builder.refreshJitter;
+		this.minPrefetchDepth = builder.minPrefetchDepth;
+		this.maxPrefetchDepth = builder.maxPrefetchDepth;
+		this.prefetchThreads = builder.prefetchThreads;
 	}
 	
 	public void setLocalWallpapers(String[] localWallpapers) {
@@ -123,6 +180,82 @@ public class WallpaperSettings
 		this.byteBuffer = byteBuffer;
 	}
 	
+	public void setCacheEnabled(boolean cacheEnabled) {
+		this.cacheEnabled = cacheEnabled;
+	}
+	
+	public void setThumbMemoryCacheSize(int thumbMemoryCacheSize) {
+		this.thumbMemoryCacheSize = thumbMemoryCacheSize;
+	}
+	
+	public void setThumbDiskCacheSize(long thumbDiskCacheSize) {
+		this.thumbDiskCacheSize = thumbDiskCacheSize;
+	}
+	
+	public void setStreamWallpapers(boolean streamWallpapers) {
+		this.streamWallpapers = streamWallpapers;
+	}
+	
+	public void setDownloadSegments(int downloadSegments) {
+		this.downloadSegments = downloadSegments;
+	}
+	
+	public void setSegmentThreshold(long segmentThreshold) {
+		this.segmentThreshold = segmentThreshold;
+	}
+	
+	public void setMaxConcurrentDownloads(int maxConcurrentDownloads) {
+		this.maxConcurrentDownloads = maxConcurrentDownloads;
+	}
+	
+	public void setProgressInterval(long progressInterval) {
+		this.progressInterval = progressInterval;
+	}
+	
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+	
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+	
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+	
+	public void setRefreshTTL(long refreshTTL) {
+		this.refreshTTL = refreshTTL;
+	}
+	
+	public void setMinRefreshInterval(long minRefreshInterval) {
+		this.minRefreshInterval = minRefreshInterval;
+	}
+	
+	public void setRefreshBackoff(long refreshBackoff) {
+		this.refreshBackoff = refreshBackoff;
+	}
+	
+	public void setMaxRefreshBackoff(long maxRefreshBackoff) {
+		this.maxRefreshBackoff = maxRefreshBackoff;
+	}
+	
+	public void setRefreshJitter(float refreshJitter) {
+		this.refreshJitter = refreshJitter;
+	}
+	
+	public void setMinPrefetchDepth(int minPrefetchDepth) {
+		this.minPrefetchDepth = minPrefetchDepth;
+	}
+	
+	public void setMaxPrefetchDepth(int maxPrefetchDepth) {
+		this.maxPrefetchDepth = maxPrefetchDepth;
+	}
+	
+	public void setPrefetchThreads(int prefetchThreads) {
+		this.prefetchThreads = prefetchThreads;
+	}
+	
 	public String[] getLocalWallpapers() {
 		return this.localWallpapers;
 	}
@@ -171,6 +304,82 @@ public class WallpaperSettings
 		return this.byteBuffer;
 	}
 	
+	public boolean getCacheEnabled() {
+		return this.cacheEnabled;
+	}
+	
+	public int getThumbMemoryCacheSize() {
+		return this.thumbMemoryCacheSize;
+	}
+	
+	public long getThumbDiskCacheSize() {
+		return this.thumbDiskCacheSize;
+	}
+	
+	public boolean getStreamWallpapers() {
+		return this.streamWallpapers;
+	}
+	
+	public int getDownloadSegments() {
+		return this.downloadSegments;
+	}
+	
+	public long getSegmentThreshold() {
+		return this.segmentThreshold;
+	}
+	
+	public int getMaxConcurrentDownloads() {
+		return this.maxConcurrentDownloads;
+	}
+	
+	public long getProgressInterval() {
+		return this.progressInterval;
+	}
+	
+	public int getConnectTimeout() {
+		return this.connectTimeout;
+	}
+	
+	public int getReadTimeout() {
+		return this.readTimeout;
+	}
+	
+	public int getMaxConnections() {
+		return this.maxConnections;
+	}
+	
+	public long getRefreshTTL() {
+		return this.refreshTTL;
+	}
+	
+	public long getMinRefreshInterval() {
+		return this.minRefreshInterval;
+	}
+	
+	public long getRefreshBackoff() {
+		return this.refreshBackoff;
+	}
+	
+	public long getMaxRefreshBackoff() {
+		return this.maxRefreshBackoff;
+	}
+	
+	public float getRefreshJitter() {
+		return this.refreshJitter;
+	}
+	
+	public int getMinPrefetchDepth() {
+		return this.minPrefetchDepth;
+	}
+	
+	public int getMaxPrefetchDepth() {
+		return this.maxPrefetchDepth;
+	}
+	
+	public int getPrefetchThreads() {
+		return this.prefetchThreads;
+	}
+	
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
@@ -187,6 +396,25 @@ public class WallpaperSettings
 		builder.append("Wallpaper Path: " + this.wallpaperPath + "\n");
 		builder.append("Web Enabled: " + this.webEnabled + "\n");
 		builder.append("Byte Buffer: " + this.byteBuffer + "\n");
+		builder.append("Cache Enabled: " + this.cacheEnabled + "\n");
+		builder.append("Thumb Memory Cache Size: " + this.thumbMemoryCacheSize + "\n");
+		builder.append("Thumb Disk Cache Size: " + this.thumbDiskCacheSize + "\n");
+		builder.append("Stream Wallpapers: " + this.streamWallpapers + "\n");
+		builder.append("Download Segments: " + this.downloadSegments + "\n");
+		builder.append("Segment Threshold: " + this.segmentThreshold + "\n");
+		builder.append("Max Concurrent Downloads: " + this.maxConcurrentDownloads + "\n");
+		builder.append("Progress Interval: " + this.progressInterval + "\n");
+		builder.append("Connect Timeout: " + this.connectTimeout + "\n");
+		builder.append("Read Timeout: " + this.readTimeout + "\n");
+		builder.append("Max Connections: " + this.maxConnections + "\n");
+		builder.append("Refresh TTL: " + this.refreshTTL + "\n");
+		builder.append("Min Refresh Interval: " + this.minRefreshInterval + "\n");
+		builder.append("Refresh Backoff: " + this.refreshBackoff + "\n");
+		builder.append("Max Refresh Backoff: " + this.maxRefreshBackoff + "\n");
+		builder.append("Refresh Jitter: " + this.refreshJitter + "\n");
+		builder.append("Min Prefetch Depth: " + this.minPrefetchDepth + "\n");
+		builder.append("Max Prefetch Depth: " + this.maxPrefetchDepth + "\n");
+		builder.append("Prefetch Threads: " + this.prefetchThreads + "\n");
 		
 		return builder.toString();
 	}
@@ -205,6 +433,25 @@ public class WallpaperSettings
 		private String wallpaperPath;
 		private boolean webEnabled;
 		private int byteBuffer;
+		private boolean cacheEnabled;
+		private int thumbMemoryCacheSize;
+		private long thumbDiskCacheSize;
+		private boolean streamWallpapers;
+		private int downloadSegments;
+		private long segmentThreshold;
+		private int maxConcurrentDownloads;
+		private long progressInterval;
+		private int connectTimeout;
+		private int readTimeout;
+		private int maxConnections;
+		private long refreshTTL;
+		private long minRefreshInterval;
+		private long refreshBackoff;
+		private long maxRefreshBackoff;
+		private float refreshJitter;
+		private int minPrefetchDepth;
+		private int maxPrefetchDepth;
+		private int prefetchThreads;
 		
 		public Builder() {
 			this.localWallpapers = new ArrayList<String>();
@@ -219,6 +466,25 @@ public class WallpaperSettings
 			this.wallpaperPath = "wallpapers/" + packageID;
 			this.webEnabled = true;
 			this.byteBuffer = 2048;
+			this.cacheEnabled = true;
+			this.thumbMemoryCacheSize = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+			this.thumbDiskCacheSize = 20 * 1024 * 1024;
+			this.streamWallpapers = true;
+			this.downloadSegments = 1;
+			this.segmentThreshold = 8 * 1024 * 1024;
+			this.maxConcurrentDownloads = 3;
+			this.progressInterval = 500;
+			this.connectTimeout = 15000;
+			this.readTimeout = 30000;
+			this.maxConnections = 8;
+			this.refreshTTL = 15 * 60 * 1000;
+			this.minRefreshInterval = 30 * 1000;
+			this.refreshBackoff = 30 * 1000;
+			this.maxRefreshBackoff = 60 * 60 * 1000;
+			this.refreshJitter = 0.1f;
+			this.minPrefetchDepth = 4;
+			this.maxPrefetchDepth = 24;
+			this.prefetchThreads = 2;
 		}
 		
 		public Builder addLocalWallpaper(String localWallpaper) {
@@ -286,6 +552,101 @@ public class WallpaperSettings
 			return this;
 		}
 		
+		public Builder cacheEnabled(boolean cacheEnabled) {
+			this.cacheEnabled = cacheEnabled;
+			return this;
+		}
+		
+		public Builder thumbMemoryCacheSize(int thumbMemoryCacheSize) {
+			this.thumbMemoryCacheSize = thumbMemoryCacheSize;
+			return this;
+		}
+		
+		public Builder thumbDiskCacheSize(long thumbDiskCacheSize) {
+			this.thumbDiskCacheSize = thumbDiskCacheSize;
+			return this;
+		}
+		
+		public Builder streamWallpapers(boolean streamWallpapers) {
+			this.streamWallpapers = streamWallpapers;
+			return this;
+		}
+		
+		public Builder downloadSegments(int downloadSegments) {
+			this.downloadSegments = downloadSegments;
+			return this;
+		}
+		
+		public Builder segmentThreshold(long segmentThreshold) {
+			this.segmentThreshold = segmentThreshold;
+			return this;
+		}
+		
+		public Builder maxConcurrentDownloads(int maxConcurrentDownloads) {
+			this.maxConcurrentDownloads = maxConcurrentDownloads;
+			return this;
+		}
+		
+		public Builder progressInterval(long progressInterval) {
+			this.progressInterval = progressInterval;
+			return this;
+		}
+		
+		public Builder connectTimeout(int connectTimeout) {
+			this.connectTimeout = connectTimeout;
+			return this;
+		}
+		
+		public Builder readTimeout(int readTimeout) {
+			this.readTimeout = readTimeout;
+			return this;
+		}
+		
+		public Builder maxConnections(int maxConnections) {
+			this.maxConnections = maxConnections;
+			return this;
+		}
+		
+		public Builder refreshTTL(long refreshTTL) {
+			this.refreshTTL = refreshTTL;
+			return this;
+		}
+		
+		public Builder minRefreshInterval(long minRefreshInterval) {
+			this.minRefreshInterval = minRefreshInterval;
+			return this;
+		}
+		
+		public Builder refreshBackoff(long refreshBackoff) {
+			this.refreshBackoff = refreshBackoff;
+			return this;
+		}
+		
+		public Builder maxRefreshBackoff(long maxRefreshBackoff) {
+			this.maxRefreshBackoff = maxRefreshBackoff;
+			return this;
+		}
+		
+		public Builder refreshJitter(float refreshJitter) {
+			this.refreshJitter = refreshJitter;
+			return this;
+		}
+		
+		public Builder minPrefetchDepth(int minPrefetchDepth) {
+			this.minPrefetchDepth = minPrefetchDepth;
+			return this;
+		}
+		
+		public Builder maxPrefetchDepth(int maxPrefetchDepth) {
+			this.maxPrefetchDepth = maxPrefetchDepth;
+			return this;
+		}
+		
+		public Builder prefetchThreads(int prefetchThreads) {
+			this.prefetchThreads = prefetchThreads;
+			return this;
+		}
+		
 		public WallpaperSettings build()  {
 			return new WallpaperSettings(this);
 		}
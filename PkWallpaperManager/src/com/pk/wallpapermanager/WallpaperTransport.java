@@ -0,0 +1,115 @@
+/*
+ * The MIT License (MIT)
+ * 
+ * Copyright (c) 2014 Pkmmte Xeleon
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.pk.wallpapermanager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Sends the requests behind the metadata, thumbnail and download paths.
+ * <p>
+ * {@link HttpTransport} is used by default. Supply your own through 
+ * {@link PkWallpaperManager#setTransport(WallpaperTransport)} to route 
+ * requests elsewhere, such as a {@link LocalWallpaperServer} for 
+ * offline benchmarks.
+ */
+public interface WallpaperTransport
+{
+	/**
+	 * Sends a GET request with the headers passed. Compressed responses 
+	 * must be decompressed transparently.
+	 * 
+	 * @param url
+	 * @param headers	May be null.
+	 * @return
+	 * @throws IOException
+	 */
+	public Response get(String url, Map<String, String> headers) throws IOException;
+	
+	/**
+	 * Sends a HEAD request with the headers passed.
+	 * 
+	 * @param url
+	 * @param headers	May be null.
+	 * @return
+	 * @throws IOException
+	 */
+	public Response head(String url, Map<String, String> headers) throws IOException;
+	
+	/**
+	 * Releases everything held by this transport. 
+	 * It can't be used afterwards.
+	 */
+	public void shutdown();
+	
+	/**
+	 * A single response. Every response must be either closed or aborted.
+	 */
+	public interface Response
+	{
+		public int getStatusCode();
+		
+		public String getReasonPhrase();
+		
+		/**
+		 * Returns the first value of the header passed or null.
+		 * 
+		 * @param name
+		 * @return
+		 */
+		public String getHeader(String name);
+		
+		/**
+		 * Length of the body as sent over the wire, -1 if unknown.
+		 * 
+		 * @return
+		 */
+		public long getContentLength();
+		
+		/**
+		 * Returns the body, decompressed if it was sent compressed.
+		 * 
+		 * @return
+		 * @throws IOException
+		 */
+		public InputStream getContent() throws IOException;
+		
+		/**
+		 * Releases the response once its body has been read. 
+		 * Whatever is left of the body may be read first, so 
+		 * {@link #abort()} responses that are far from done.
+		 * 
+		 * @throws IOException
+		 */
+		public void close() throws IOException;
+		
+		/**
+		 * Drops the response and its connection without reading the rest. 
+		 * May be called from another thread to stop a read in progress.
+		 */
+		public void abort();
+	}
+}